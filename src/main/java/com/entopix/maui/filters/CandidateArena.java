@@ -0,0 +1,165 @@
+package com.entopix.maui.filters;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import com.entopix.maui.stemmers.Stemmer;
+import com.entopix.maui.util.Candidate;
+import com.entopix.maui.util.Lexicon;
+import com.entopix.maui.util.PhraseTable;
+
+/**
+ * The working space used by MauiFilter to collect the candidates of a
+ * document: the buffer of the last words, the n-grams and pseudo phrases
+ * seen in the document, and the extension of the lexicon with its unseen
+ * words. It is cleared after each document and reused for the next one by
+ * the same thread, so that, once it has grown to the size of the documents,
+ * collecting candidates creates few objects besides the candidates and
+ * their strings.
+ * <br>
+ * An arena is not thread-safe. Nothing in it is referenced from the
+ * candidates collected, so it can be cleared as soon as they are.
+ *
+ * @author zelandiya
+ *
+ */
+final class CandidateArena {
+
+	/** Arenas that have held more n-grams than this are not kept */
+	static final int MAX_RETAINED_NGRAMS = 1 << 16;
+
+	/** True while a document is collected with this arena */
+	boolean inUse = false;
+
+	/** Ring buffer with the last words of the current phrase */
+	int[] wordStart = new int[0];
+	int[] wordEnd = new int[0];
+	int[] wordIds = new int[0];
+	String[] words = new String[0];
+	boolean[] isStopword = new boolean[0];
+
+	/** Ids of the words of the current n-gram */
+	int[] ngram = new int[0];
+
+	/** Ids of the stems of the current pseudo phrase */
+	int[] stems = new int[0];
+
+	/** The n-grams seen in the document, keyed by their word ids */
+	final PhraseTable ngrams = new PhraseTable();
+	final ArrayList<String> ngramForms = new ArrayList<String>();
+
+	/**
+	 * The candidates of the n-grams, one n-gram after the other, and the
+	 * start of those of each n-gram
+	 */
+	private Candidate[] ngramCandidates = new Candidate[256];
+	private int[] ngramCandidatesStart = new int[65];
+	private int numNgramCandidates = 0;
+
+	/** The pseudo phrases seen in the document, keyed by their stem ids */
+	final PhraseTable pseudoPhrases = new PhraseTable();
+	final ArrayList<String> pseudoPhraseNames = new ArrayList<String>();
+
+	/** Names of the candidates of the current n-gram */
+	final ArrayList<String> candidateNames = new ArrayList<String>();
+
+	/** Extension of the model's lexicon, or null */
+	private Lexicon lexicon = null;
+
+	/**
+	 * Prepares the buffers for phrases of up to the given number of words.
+	 */
+	void begin(int maxPhraseLength) {
+		if (wordStart.length != maxPhraseLength) {
+			wordStart = new int[maxPhraseLength];
+			wordEnd = new int[maxPhraseLength];
+			wordIds = new int[maxPhraseLength];
+			words = new String[maxPhraseLength];
+			isStopword = new boolean[maxPhraseLength];
+			ngram = new int[maxPhraseLength];
+			stems = new int[maxPhraseLength];
+		}
+	}
+
+	/**
+	 * Returns an empty extension of the given frozen lexicon, which
+	 * stems unseen words with the given stemmer.
+	 */
+	Lexicon getLexicon(Lexicon modelLexicon, Stemmer stemmer) {
+		if (lexicon == null || !lexicon.isExtensionOf(modelLexicon)
+				|| lexicon.getStemmer() != stemmer) {
+			lexicon = modelLexicon.extend(stemmer);
+		}
+		return lexicon;
+	}
+
+	/**
+	 * Adds a candidate of the n-gram that is added next to the table of
+	 * n-grams.
+	 */
+	void addNgramCandidate(Candidate candidate) {
+		if (numNgramCandidates == ngramCandidates.length) {
+			ngramCandidates = Arrays.copyOf(ngramCandidates, numNgramCandidates * 2);
+		}
+		ngramCandidates[numNgramCandidates++] = candidate;
+	}
+
+	/**
+	 * Adds the n-gram to the table, with the full form and the candidates
+	 * added since the previous one.
+	 */
+	void addNgram(int[] ngram, int numWords, String form) {
+		int index = ngrams.add(ngram, numWords);
+		ngramForms.add(form);
+		if (index + 1 == ngramCandidatesStart.length) {
+			ngramCandidatesStart = Arrays.copyOf(ngramCandidatesStart, ngramCandidatesStart.length * 2);
+		}
+		ngramCandidatesStart[index + 1] = numNgramCandidates;
+	}
+
+	/**
+	 * Returns the start of the candidates of the n-gram with the given index.
+	 */
+	int getNgramCandidatesStart(int index) {
+		return ngramCandidatesStart[index];
+	}
+
+	/**
+	 * Returns the end of the candidates of the n-gram with the given index.
+	 */
+	int getNgramCandidatesEnd(int index) {
+		return ngramCandidatesStart[index + 1];
+	}
+
+	Candidate getNgramCandidate(int k) {
+		return ngramCandidates[k];
+	}
+
+	/**
+	 * Returns true if the arena is small enough to be kept for the next
+	 * document.
+	 */
+	boolean isRetainable() {
+		return ngrams.size() <= MAX_RETAINED_NGRAMS
+				&& pseudoPhrases.size() <= MAX_RETAINED_NGRAMS;
+	}
+
+	/**
+	 * Empties the arena, so that it no longer references the words and
+	 * candidates of the document.
+	 */
+	void clear() {
+		Arrays.fill(words, null);
+		ngrams.clear();
+		ngramForms.clear();
+		Arrays.fill(ngramCandidates, 0, numNgramCandidates, null);
+		numNgramCandidates = 0;
+		pseudoPhrases.clear();
+		pseudoPhraseNames.clear();
+		candidateNames.clear();
+		if (lexicon != null) {
+			lexicon.clear();
+		}
+		inUse = false;
+	}
+}
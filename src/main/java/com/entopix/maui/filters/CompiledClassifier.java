@@ -0,0 +1,318 @@
+package com.entopix.maui.filters;
+
+import java.io.Serializable;
+import java.lang.reflect.Field;
+import java.util.Arrays;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import weka.classifiers.Classifier;
+import weka.classifiers.IteratedSingleClassifierEnhancer;
+import weka.classifiers.meta.Bagging;
+import weka.classifiers.trees.J48;
+import weka.classifiers.trees.j48.C45Split;
+import weka.classifiers.trees.j48.ClassifierSplitModel;
+import weka.classifiers.trees.j48.ClassifierTree;
+import weka.classifiers.trees.j48.NoSplit;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.Utils;
+
+/**
+ * A trained J48 tree, or a Bagging ensemble of J48 trees, stored in flat
+ * arrays, so that computing a distribution is a loop over the feature
+ * values that creates no objects besides the result.
+ * <br>
+ * The probabilities are the same as Weka's, bit for bit: the splits are
+ * tested with Utils.smOrEq as in C45Split, the leaf probabilities are
+ * computed by the trees' own split models when the classifier is compiled,
+ * and the ensemble sums and normalizes them in the same order as Bagging.
+ * Instances with missing values are not handled, as Weka splits them
+ * between branches; the classifier has to be used for them instead.
+ *
+ * @author zelandiya
+ *
+ */
+public class CompiledClassifier implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private static final Logger log = LoggerFactory.getLogger(CompiledClassifier.class);
+
+	/** Number of class values */
+	private final int numClasses;
+
+	/** If true, the distributions of the trees are averaged as in Bagging */
+	private final boolean normalize;
+
+	/** First node of each tree */
+	private int[] roots;
+
+	/** Attribute tested by each node, or -1 for leaves */
+	private int[] attributes;
+
+	/** Split point of each node */
+	private double[] splitPoints;
+
+	/**
+	 * Children of each node, for values up to and above the split point.
+	 * For leaves, the first one is the start of the distribution in leafProbs.
+	 */
+	private int[] children;
+
+	/** Class probabilities of the leaves, numClasses for each leaf */
+	private double[] leafProbs;
+
+	private int numNodes = 0;
+	private int numLeafProbs = 0;
+
+	private CompiledClassifier(int numClasses, boolean normalize) {
+		this.numClasses = numClasses;
+		this.normalize = normalize;
+		roots = new int[0];
+		attributes = new int[64];
+		splitPoints = new double[64];
+		children = new int[128];
+		leafProbs = new double[64];
+	}
+
+	/**
+	 * Compiles the classifier, if it is a J48 tree or a Bagging ensemble of
+	 * J48 trees built on numeric attributes. Returns null otherwise, or if
+	 * the trees use options that are not supported (e.g. Laplace smoothing).
+	 *
+	 * @param classifier the trained classifier
+	 * @param header the format of the instances it was trained on
+	 */
+	public static CompiledClassifier compile(Classifier classifier, Instances header) {
+		if (classifier == null || header == null || header.classIndex() < 0
+				|| !header.classAttribute().isNominal()) {
+			return null;
+		}
+		try {
+			Classifier[] members;
+			boolean normalize;
+			if (classifier instanceof Bagging) {
+				Classifier[] all = (Classifier[]) getField(
+						IteratedSingleClassifierEnhancer.class, "m_Classifiers", classifier);
+				int numIterations = ((Bagging) classifier).getNumIterations();
+				if (all == null || all.length < numIterations) {
+					return null;
+				}
+				members = Arrays.copyOf(all, numIterations);
+				normalize = true;
+			} else {
+				members = new Classifier[] { classifier };
+				normalize = false;
+			}
+
+			CompiledClassifier compiled = new CompiledClassifier(header.numClasses(), normalize);
+			Instance dummy = new Instance(header.numAttributes());
+			dummy.setDataset(header);
+			compiled.roots = new int[members.length];
+			for (int i = 0; i < members.length; i++) {
+				if (!(members[i] instanceof J48) || ((J48) members[i]).getUseLaplace()) {
+					return null;
+				}
+				ClassifierTree root = (ClassifierTree) getField(J48.class, "m_root", members[i]);
+				int node = compiled.addTree(root, header, dummy);
+				if (node == -1) {
+					return null;
+				}
+				compiled.roots[i] = node;
+			}
+			compiled.trim();
+			return compiled;
+		} catch (Exception e) {
+			log.warn("Could not compile the classifier: " + e.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * Returns the class probabilities for the given attribute values, as
+	 * classifier.distributionForInstance would, or null if a value needed
+	 * is missing.
+	 */
+	public double[] distributionForInstance(double[] values) {
+		double[] sums = new double[numClasses];
+		for (int i = 0; i < roots.length; i++) {
+			int node = roots[i];
+			int attribute;
+			while ((attribute = attributes[node]) >= 0) {
+				double value = values[attribute];
+				if (Double.isNaN(value)) {
+					return null;
+				}
+				if (Utils.smOrEq(value, splitPoints[node])) {
+					node = children[2 * node];
+				} else {
+					node = children[2 * node + 1];
+				}
+			}
+			int start = children[2 * node];
+			for (int j = 0; j < numClasses; j++) {
+				sums[j] += leafProbs[start + j];
+			}
+		}
+		if (normalize && !Utils.eq(Utils.sum(sums), 0)) {
+			Utils.normalize(sums);
+		}
+		return sums;
+	}
+
+	/**
+	 * Computes the class probabilities for all rows of the matrix, as
+	 * distributionForInstance would for each row, tree by tree. The
+	 * probabilities of row i are stored from i * numClasses() on in the
+	 * given array, and are NaN for rows in which a value needed is missing.
+	 */
+	public void distributionsForMatrix(FeatureMatrix matrix, double[] distributions) {
+		int numRows = matrix.numRows();
+		double[] values = matrix.getValues();
+		Arrays.fill(distributions, 0, numRows * numClasses, 0.0);
+
+		for (int i = 0; i < roots.length; i++) {
+			int root = roots[i];
+			for (int row = 0; row < numRows; row++) {
+				int start = row * numClasses;
+				if (Double.isNaN(distributions[start])) {
+					continue;
+				}
+				int node = root;
+				int attribute;
+				while ((attribute = attributes[node]) >= 0) {
+					double value = values[attribute * numRows + row];
+					if (Double.isNaN(value)) {
+						break;
+					}
+					if (Utils.smOrEq(value, splitPoints[node])) {
+						node = children[2 * node];
+					} else {
+						node = children[2 * node + 1];
+					}
+				}
+				if (attribute >= 0) {
+					distributions[start] = Double.NaN;
+					continue;
+				}
+				int leaf = children[2 * node];
+				for (int j = 0; j < numClasses; j++) {
+					distributions[start + j] += leafProbs[leaf + j];
+				}
+			}
+		}
+
+		if (normalize) {
+			double[] sums = new double[numClasses];
+			for (int row = 0; row < numRows; row++) {
+				int start = row * numClasses;
+				if (Double.isNaN(distributions[start])) {
+					continue;
+				}
+				System.arraycopy(distributions, start, sums, 0, numClasses);
+				if (!Utils.eq(Utils.sum(sums), 0)) {
+					Utils.normalize(sums);
+					System.arraycopy(sums, 0, distributions, start, numClasses);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of class values.
+	 */
+	public int numClasses() {
+		return numClasses;
+	}
+
+	/**
+	 * Returns the number of nodes of all trees.
+	 */
+	public int numNodes() {
+		return numNodes;
+	}
+
+	/**
+	 * Adds the nodes of a tree, and returns the index of its root, or -1 if
+	 * the tree cannot be compiled.
+	 */
+	private int addTree(ClassifierTree tree, Instances header, Instance dummy) throws Exception {
+		ClassifierSplitModel model = (ClassifierSplitModel) getField(
+				ClassifierTree.class, "m_localModel", tree);
+		if ((Boolean) getField(ClassifierTree.class, "m_isLeaf", tree)) {
+			if (!(model instanceof NoSplit)) {
+				return -1;
+			}
+			return addLeaf(model, dummy, -1);
+		}
+
+		if (!(model instanceof C45Split) || model.numSubsets() != 2) {
+			return -1;
+		}
+		C45Split split = (C45Split) model;
+		if (!header.attribute(split.attIndex()).isNumeric()) {
+			return -1;
+		}
+		ClassifierTree[] sons = (ClassifierTree[]) getField(ClassifierTree.class, "m_sons", tree);
+
+		int node = addNode(split.attIndex(),
+				(Double) getField(C45Split.class, "m_splitPoint", split));
+		for (int i = 0; i < 2; i++) {
+			int child;
+			if ((Boolean) getField(ClassifierTree.class, "m_isEmpty", sons[i])) {
+				// empty branches use the distribution of their parent
+				child = addLeaf(model, dummy, i);
+			} else {
+				child = addTree(sons[i], header, dummy);
+			}
+			if (child == -1) {
+				return -1;
+			}
+			children[2 * node + i] = child;
+		}
+		return node;
+	}
+
+	private int addNode(int attribute, double splitPoint) {
+		if (numNodes == attributes.length) {
+			attributes = Arrays.copyOf(attributes, numNodes * 2);
+			splitPoints = Arrays.copyOf(splitPoints, numNodes * 2);
+			children = Arrays.copyOf(children, numNodes * 4);
+		}
+		int node = numNodes++;
+		attributes[node] = attribute;
+		splitPoints[node] = splitPoint;
+		return node;
+	}
+
+	/**
+	 * Adds a leaf with the class probabilities of the split model for the
+	 * given subset, as computed by ClassifierTree.getProbs().
+	 */
+	private int addLeaf(ClassifierSplitModel model, Instance dummy, int subset) throws Exception {
+		int node = addNode(-1, 0);
+		if (numLeafProbs + numClasses > leafProbs.length) {
+			leafProbs = Arrays.copyOf(leafProbs, Math.max(leafProbs.length * 2, numLeafProbs + numClasses));
+		}
+		children[2 * node] = numLeafProbs;
+		for (int j = 0; j < numClasses; j++) {
+			leafProbs[numLeafProbs++] = 1.0 * model.classProb(j, dummy, subset);
+		}
+		return node;
+	}
+
+	private void trim() {
+		attributes = Arrays.copyOf(attributes, numNodes);
+		splitPoints = Arrays.copyOf(splitPoints, numNodes);
+		children = Arrays.copyOf(children, numNodes * 2);
+		leafProbs = Arrays.copyOf(leafProbs, numLeafProbs);
+	}
+
+	private static Object getField(Class<?> declaringClass, String name, Object object) throws Exception {
+		Field field = declaringClass.getDeclaredField(name);
+		field.setAccessible(true);
+		return field.get(object);
+	}
+}
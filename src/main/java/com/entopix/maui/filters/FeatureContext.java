@@ -0,0 +1,103 @@
+package com.entopix.maui.filters;
+
+import java.util.HashMap;
+
+import com.entopix.maui.util.Candidate;
+import com.entopix.maui.util.GivenKeyphrases;
+import com.entopix.maui.vocab.Vocabulary;
+import com.entopix.maui.wikifeatures.WikiFeatures;
+
+/**
+ * What a FeatureExtractor knows about the document whose candidates it
+ * computes the features of, and about the model.
+ *
+ * @author zelandiya
+ *
+ */
+public abstract class FeatureContext {
+
+	private final HashMap<String, Candidate> candidates;
+	private final boolean training;
+	private final GivenKeyphrases givenKeyphrases;
+
+	protected FeatureContext(HashMap<String, Candidate> candidates, boolean training,
+			GivenKeyphrases givenKeyphrases) {
+		this.candidates = candidates;
+		this.training = training;
+		this.givenKeyphrases = givenKeyphrases;
+	}
+
+	/**
+	 * Returns all candidates of the document, by name.
+	 */
+	public HashMap<String, Candidate> getDocumentCandidates() {
+		return candidates;
+	}
+
+	/**
+	 * Returns true if the document is one of those the model is built from.
+	 */
+	public boolean isTraining() {
+		return training;
+	}
+
+	/**
+	 * Returns the topics assigned manually to the document, or null if there
+	 * are none.
+	 */
+	public GivenKeyphrases getGivenKeyphrases() {
+		return givenKeyphrases;
+	}
+
+	/**
+	 * Returns the inverse document frequency of a candidate in the
+	 * documents the model was built from, not counting this document if it
+	 * is one of them.
+	 */
+	public double getIdf(Candidate candidate) {
+		double globalVal = getDocumentFrequency(candidate.getName());
+		if (globalVal > 0 && training) {
+			globalVal = globalVal - 1;
+		}
+		return -Math.log((globalVal + 1) / ((double) getNumDocuments() + 1));
+	}
+
+	/**
+	 * Returns the number of documents the model was built from that
+	 * contain the candidate with the given name.
+	 */
+	public abstract int getDocumentFrequency(String name);
+
+	/**
+	 * Returns the number of documents the model was built from.
+	 */
+	public abstract int getNumDocuments();
+
+	/**
+	 * Returns how often a topic was assigned manually in the documents the
+	 * model was built from.
+	 */
+	public abstract int getKeyphraseFrequency(String keyphraseName);
+
+	/**
+	 * Returns the name by which the candidate is found in the keyphrase
+	 * frequencies and among the given keyphrases.
+	 */
+	public abstract String getKeyphraseName(Candidate candidate);
+
+	/**
+	 * Returns how the candidate is shown: its title in the vocabulary, or
+	 * its most frequent form. May be null.
+	 */
+	public abstract String getForm(Candidate candidate);
+
+	/**
+	 * Returns the vocabulary, or null if there is none.
+	 */
+	public abstract Vocabulary getVocabulary();
+
+	/**
+	 * Returns the Wikipedia features, or null if they are not loaded.
+	 */
+	public abstract WikiFeatures getWikiFeatures();
+}
@@ -0,0 +1,62 @@
+package com.entopix.maui.filters;
+
+import java.io.Serializable;
+import java.util.List;
+
+import com.entopix.maui.util.Candidate;
+
+/**
+ * Computes one or more features of the candidates of a document, each
+ * into a column of a FeatureMatrix. Each feature is an attribute of the
+ * classifier with the name given by getFeatureNames().
+ * <br>
+ * The features of Maui are computed by the extractors in
+ * FeatureExtractors, which are used if their features are enabled. Other
+ * features can be added with MauiFilter.addFeatureExtractor() before the
+ * model is built. As the extractors are saved with the model, they must be
+ * serializable.
+ *
+ * @author zelandiya
+ *
+ */
+public abstract class FeatureExtractor implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	/** Cost of features computed from the candidate alone */
+	public static final int COST_CANDIDATE = 0;
+
+	/** Cost of features looked up in the tables of the model */
+	public static final int COST_MODEL = 1;
+
+	/** Cost of features looked up in a vocabulary or other resource */
+	public static final int COST_RESOURCE = 2;
+
+	/**
+	 * Returns the names of the features, in the order of the columns passed
+	 * to extract().
+	 */
+	public abstract String[] getFeatureNames();
+
+	/**
+	 * Returns how expensive the features are to compute, one of the COST_
+	 * constants or a higher value. Cheaper extractors run first.
+	 */
+	public abstract int getCost();
+
+	/**
+	 * Computes the features of the candidates from position from to
+	 * position to (exclusive) in the list, into the same rows of the
+	 * matrix.
+	 *
+	 * @param context the document and the model
+	 * @param candidates the candidates
+	 * @param from the first candidate
+	 * @param to the end of the candidates
+	 * @param matrix the matrix
+	 * @param columns the column of each feature, in the order of
+	 * getFeatureNames()
+	 */
+	public abstract void extract(FeatureContext context, List<Candidate> candidates,
+			int from, int to, FeatureMatrix matrix, int[] columns);
+}
@@ -0,0 +1,236 @@
+package com.entopix.maui.filters;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import com.entopix.maui.util.Candidate;
+import com.entopix.maui.util.GivenKeyphrases;
+import com.entopix.maui.vocab.Vocabulary;
+import com.entopix.maui.wikifeatures.WikiFeatures;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The extractors of the features of Maui, one for each family of features
+ * that can be enabled in MauiFilter.
+ *
+ * @author zelandiya
+ *
+ */
+public final class FeatureExtractors {
+
+	private static final Logger log = LoggerFactory.getLogger(FeatureExtractors.class);
+
+	private FeatureExtractors() {
+	}
+
+	/**
+	 * TFxIDF and position of the first occurrence.
+	 */
+	public static final class Basic extends FeatureExtractor {
+
+		private static final long serialVersionUID = 1L;
+
+		public String[] getFeatureNames() {
+			return new String[] { "TFxIDF", "First_occurrence" };
+		}
+
+		public int getCost() {
+			return COST_MODEL;
+		}
+
+		public void extract(FeatureContext context, List<Candidate> candidates,
+				int from, int to, FeatureMatrix matrix, int[] columns) {
+			for (int row = from; row < to; row++) {
+				Candidate candidate = candidates.get(row);
+				matrix.set(row, columns[0], candidate.getTermFrequency() * context.getIdf(candidate));
+				matrix.set(row, columns[1], candidate.getFirstOccurrence());
+			}
+		}
+	}
+
+	/**
+	 * Term frequency and inverse document frequency.
+	 */
+	public static final class Frequency extends FeatureExtractor {
+
+		private static final long serialVersionUID = 1L;
+
+		public String[] getFeatureNames() {
+			return new String[] { "Term_frequency", "IDF" };
+		}
+
+		public int getCost() {
+			return COST_MODEL;
+		}
+
+		public void extract(FeatureContext context, List<Candidate> candidates,
+				int from, int to, FeatureMatrix matrix, int[] columns) {
+			for (int row = from; row < to; row++) {
+				Candidate candidate = candidates.get(row);
+				matrix.set(row, columns[0], candidate.getTermFrequency());
+				matrix.set(row, columns[1], context.getIdf(candidate));
+			}
+		}
+	}
+
+	/**
+	 * Position of the last occurrence, and spread of the occurrences.
+	 */
+	public static final class Positions extends FeatureExtractor {
+
+		private static final long serialVersionUID = 1L;
+
+		public String[] getFeatureNames() {
+			return new String[] { "Last_occurrence", "Spread" };
+		}
+
+		public int getCost() {
+			return COST_CANDIDATE;
+		}
+
+		public void extract(FeatureContext context, List<Candidate> candidates,
+				int from, int to, FeatureMatrix matrix, int[] columns) {
+			for (int row = from; row < to; row++) {
+				Candidate candidate = candidates.get(row);
+				matrix.set(row, columns[0], candidate.getLastOccurrence());
+				matrix.set(row, columns[1], candidate.getSpread());
+			}
+		}
+	}
+
+	/**
+	 * How often a candidate has been assigned manually in the training
+	 * documents, not counting this document.
+	 */
+	public static final class Keyphraseness extends FeatureExtractor {
+
+		private static final long serialVersionUID = 1L;
+
+		public String[] getFeatureNames() {
+			return new String[] { "Domain_keyphraseness" };
+		}
+
+		public int getCost() {
+			return COST_MODEL;
+		}
+
+		public void extract(FeatureContext context, List<Candidate> candidates,
+				int from, int to, FeatureMatrix matrix, int[] columns) {
+			GivenKeyphrases givenKeyphrases = context.isTraining()
+					? context.getGivenKeyphrases() : null;
+			for (int row = from; row < to; row++) {
+				String name = context.getKeyphraseName(candidates.get(row));
+				int domainKeyphr = context.getKeyphraseFrequency(name);
+				if (givenKeyphrases != null && givenKeyphrases.contains(name)) {
+					domainKeyphr--;
+				}
+				matrix.set(row, columns[0], domainKeyphr);
+			}
+		}
+	}
+
+	/**
+	 * Number of words of the most frequent form of a candidate.
+	 */
+	public static final class Length extends FeatureExtractor {
+
+		private static final long serialVersionUID = 1L;
+
+		public String[] getFeatureNames() {
+			return new String[] { "Length" };
+		}
+
+		public int getCost() {
+			return COST_CANDIDATE;
+		}
+
+		public void extract(FeatureContext context, List<Candidate> candidates,
+				int from, int to, FeatureMatrix matrix, int[] columns) {
+			for (int row = from; row < to; row++) {
+				Candidate candidate = candidates.get(row);
+				String original = candidate.getBestFullForm();
+				if (original == null) {
+					log.warn("Warning! Problem with candidate " + candidate.getName());
+					matrix.set(row, columns[0], 1.0);
+				} else {
+					matrix.set(row, columns[0], original.split(" ").length);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Generality of a term in the vocabulary, and the number of its related
+	 * terms that are candidates of the document.
+	 */
+	public static final class Thesaurus extends FeatureExtractor {
+
+		private static final long serialVersionUID = 1L;
+
+		public String[] getFeatureNames() {
+			return new String[] { "Node_degree", "Generality" };
+		}
+
+		public int getCost() {
+			return COST_RESOURCE;
+		}
+
+		public void extract(FeatureContext context, List<Candidate> candidates,
+				int from, int to, FeatureMatrix matrix, int[] columns) {
+			Vocabulary vocabulary = context.getVocabulary();
+			HashMap<String, Candidate> documentCandidates = context.getDocumentCandidates();
+			for (int row = from; row < to; row++) {
+				String id = candidates.get(row).getName();
+				int nodeDegree = 0;
+				ArrayList<String> relatedTerms = vocabulary.getRelated(id);
+				if (relatedTerms != null) {
+					for (String relatedTerm : relatedTerms) {
+						if (documentCandidates.get(relatedTerm) != null) {
+							nodeDegree++;
+						}
+					}
+				}
+				matrix.set(row, columns[0], nodeDegree);
+				matrix.set(row, columns[1], vocabulary.getGenerality(id));
+			}
+		}
+	}
+
+	/**
+	 * Keyphraseness of the forms of a candidate in Wikipedia, and the
+	 * inverse frequency and generality of its article. The first two are
+	 * stored under each other's attribute names, as in all saved models.
+	 */
+	public static final class Wikipedia extends FeatureExtractor {
+
+		private static final long serialVersionUID = 1L;
+
+		public String[] getFeatureNames() {
+			return new String[] { "Wikipedia_inlinks", "Wikipedia_keyphraseness",
+					"Wikipedia_generality" };
+		}
+
+		public int getCost() {
+			return COST_RESOURCE;
+		}
+
+		public void extract(FeatureContext context, List<Candidate> candidates,
+				int from, int to, FeatureMatrix matrix, int[] columns) {
+			WikiFeatures wikiFeatures = context.getWikiFeatures();
+			for (int row = from; row < to; row++) {
+				Candidate candidate = candidates.get(row);
+				double totalWikipediaKeyphraseness = 0;
+				for (String form : candidate.getFullForms().keySet()) {
+					totalWikipediaKeyphraseness += wikiFeatures.getWikipediaKeyphraseness(form);
+				}
+				String possibleWikipediaName = context.getForm(candidate);
+				matrix.set(row, columns[0], totalWikipediaKeyphraseness);
+				matrix.set(row, columns[1], wikiFeatures.getInversedWikipediaFrequency(possibleWikipediaName));
+				matrix.set(row, columns[2], wikiFeatures.getWikipediaGenerality(possibleWikipediaName));
+			}
+		}
+	}
+}
@@ -0,0 +1,131 @@
+package com.entopix.maui.filters;
+
+import java.util.Arrays;
+
+/**
+ * The feature values of the candidates of a document, one row per candidate
+ * and one column per attribute of the classifier. The values are stored
+ * column by column in a single array, which is reused when the matrix is
+ * reset for the next document, so that scoring a document creates no
+ * objects per candidate.
+ * <br>
+ * A matrix is not thread-safe, and is meant to be reused by one thread.
+ *
+ * @author zelandiya
+ *
+ */
+public class FeatureMatrix {
+
+	/** Matrices that have held more values than this are not kept */
+	static final int MAX_RETAINED_VALUES = 1 << 20;
+
+	/** Values, column by column */
+	private double[] values = new double[0];
+
+	private int numRows = 0;
+	private int numColumns = 0;
+
+	/**
+	 * Resizes the matrix to the given number of rows and columns, keeping
+	 * the allocated space if it is large enough. The values are undefined
+	 * until they are set.
+	 */
+	public void reset(int numRows, int numColumns) {
+		if (values.length < numRows * numColumns) {
+			values = new double[Math.max(values.length * 2, numRows * numColumns)];
+		}
+		this.numRows = numRows;
+		this.numColumns = numColumns;
+	}
+
+	public int numRows() {
+		return numRows;
+	}
+
+	public int numColumns() {
+		return numColumns;
+	}
+
+	public double get(int row, int column) {
+		return values[column * numRows + row];
+	}
+
+	public void set(int row, int column, double value) {
+		values[column * numRows + row] = value;
+	}
+
+	/**
+	 * Sets the values of a column from row from to row to (exclusive).
+	 */
+	public void fill(int column, int from, int to, double value) {
+		Arrays.fill(values, column * numRows + from, column * numRows + to, value);
+	}
+
+	/**
+	 * Sets the values of a row from an array with one value per column.
+	 */
+	public void setRow(int row, double[] rowValues) {
+		for (int j = 0; j < numColumns; j++) {
+			values[j * numRows + row] = rowValues[j];
+		}
+	}
+
+	/**
+	 * Returns a new array with the values of a row.
+	 */
+	public double[] getRow(int row) {
+		double[] rowValues = new double[numColumns];
+		for (int j = 0; j < numColumns; j++) {
+			rowValues[j] = values[j * numRows + row];
+		}
+		return rowValues;
+	}
+
+	/**
+	 * Resizes the matrix to the given rows of another matrix, and copies
+	 * their values.
+	 *
+	 * @param source the matrix to copy from
+	 * @param rows the rows of source, in the order of the rows of this matrix
+	 * @param numRows the number of rows to copy
+	 */
+	public void selectRows(FeatureMatrix source, int[] rows, int numRows) {
+		reset(numRows, source.numColumns);
+		for (int j = 0; j < numColumns; j++) {
+			for (int i = 0; i < numRows; i++) {
+				values[j * numRows + i] = source.values[j * source.numRows + rows[i]];
+			}
+		}
+	}
+
+	/**
+	 * Keeps only the first numRows rows, with their values.
+	 */
+	public void truncate(int numRows) {
+		if (numRows >= this.numRows) {
+			return;
+		}
+		// the columns move towards the start, so no value is overwritten
+		// before it is moved
+		for (int j = 1; j < numColumns; j++) {
+			System.arraycopy(values, j * this.numRows, values, j * numRows, numRows);
+		}
+		this.numRows = numRows;
+	}
+
+	/**
+	 * Returns true if the matrix is small enough to be kept for the next
+	 * document.
+	 */
+	boolean isRetainable() {
+		return values.length <= MAX_RETAINED_VALUES;
+	}
+
+	/**
+	 * Returns the array of values, in which the value of a row and column
+	 * is at column * numRows() + row.
+	 */
+	double[] getValues() {
+		return values;
+	}
+}
@@ -18,21 +18,46 @@ package com.entopix.maui.filters;
  *    along with this program; if not, write to the Free Software
  *    Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
  */
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Reader;
+import java.io.UncheckedIOException;
 import java.util.Arrays;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
 import java.util.Set;
 import java.util.StringTokenizer;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
+import com.entopix.maui.stemmers.CachingStemmer;
 import com.entopix.maui.stemmers.PorterStemmer;
 import com.entopix.maui.stemmers.Stemmer;
 import com.entopix.maui.stopwords.Stopwords;
 import com.entopix.maui.stopwords.StopwordsEnglish;
+import com.entopix.maui.util.BoundedCandidateTable;
 import com.entopix.maui.util.Candidate;
+import com.entopix.maui.util.CountTable;
 import com.entopix.maui.util.Counter;
+import com.entopix.maui.util.ExtractionResult;
+import com.entopix.maui.util.GivenKeyphrases;
+import com.entopix.maui.util.LRUCache;
+import com.entopix.maui.util.Lexicon;
+import com.entopix.maui.util.PhraseTable;
+import com.entopix.maui.util.Topic;
 import com.entopix.maui.vocab.Vocabulary;
+import com.entopix.maui.vocab.VocabularyMatcher;
 import com.entopix.maui.wikifeatures.WikiFeatures;
 
 import org.slf4j.Logger;
@@ -192,32 +217,101 @@ public class MauiFilter extends Filter {
 	boolean useWikipediaFeatures = false;
 
 	/**
-	 * The punctuation filter used by this filter
+	 * Extractors of features added to those of Maui, or null if there are none
 	 */
-	private MauiPhraseFilter phraseFilter = null;
+	private ArrayList<FeatureExtractor> featureExtractors = null;
 
 	/**
-	 * The numbers filter used by this filter
+	 * Fraction of the manually assigned topics kept by the pre-filter, or
+	 * 0 if candidates are not pre-filtered
 	 */
-	private NumbersFilter numbersFilter = null;
+	private double preFilterRecall = 0;
+
+	/**
+	 * Model that removes clearly negative candidates before they are scored
+	 * by the classifier, or null
+	 */
+	private PreFilter preFilter = null;
+
+	/** Number of candidates checked and removed by the pre-filter */
+	private transient AtomicLong preFilteredCandidates = new AtomicLong();
+	private transient AtomicLong prunedCandidates = new AtomicLong();
 
 	/**
 	 * The actual classifier used to compute probabilities
 	 */
 	private Classifier classifier = null;
 
+	/**
+	 * The classifier in flat arrays, used instead of it if it could be
+	 * compiled
+	 */
+	private CompiledClassifier compiledClassifier = null;
+
+	/** Feature matrices, reused for the documents of each thread unless they grow too large */
+	private transient ThreadLocal<FeatureMatrix> featureMatrices = new ThreadLocal<FeatureMatrix>();
+
+	/** Rows kept by the pre-filter and their scores, reused like the feature matrices */
+	private transient ThreadLocal<PreFilterBuffers> preFilterBuffers = new ThreadLocal<PreFilterBuffers>();
+
+	/**
+	 * The feature extractors and the columns of their features, or null if
+	 * they have to be looked up again as the enabled features have changed
+	 */
+	private transient volatile FeatureLayout featureLayout = null;
+
+	/** Working space for collecting candidates, reused for the documents of each thread */
+	private transient ThreadLocal<CandidateArena> candidateArenas = new ThreadLocal<CandidateArena>();
+
 	/**
 	 * The dictionary containing the document frequencies
 	 */
-	public HashMap<String, Counter> globalDictionary = null;
+	private CountTable globalFrequencies = null;
+
+	/**
+	 * The dictionary containing the keyphrase frequencies
+	 */
+	private CountTable keyphraseFrequencies = null;
 
 	/**
-	 * The dictionary containing the keyphrases
+	 * The dictionaries of models saved by older versions, which are
+	 * converted into globalFrequencies and keyphraseFrequencies when
+	 * the model is read
 	 */
+	private HashMap<String, Counter> globalDictionary = null;
 	private HashMap<String, Counter> keyphraseDictionary = null;
 
 	transient HashMap<Instance, HashMap<String, Candidate>> allCandidates = null;
 
+	/** The manually assigned topics of the training documents */
+	transient HashMap<Instance, GivenKeyphrases> allKeyphrases = null;
+
+	/**
+	 * Ids of the words and stems seen in the training documents
+	 */
+	private Lexicon lexicon = null;
+
+	/**
+	 * Cache of pseudo phrases, or null if they are not cached
+	 */
+	private transient LRUCache<String, String> pseudoPhraseCache = null;
+
+	/**
+	 * Length in characters of the parts of long texts whose candidates are
+	 * collected in parallel, or 0 if they are collected in one pass
+	 */
+	private transient int candidateSegmentLength = 0;
+
+	/**
+	 * Maximum number of candidates kept per document, or 0 if all are kept
+	 */
+	private transient int maxCandidates = 0;
+
+	/**
+	 * True once prepareForConcurrentExtraction() has been called
+	 */
+	private transient volatile boolean preparedForConcurrency = false;
+
 	/**
 	 * The number of documents in the global frequencies corpus
 	 */
@@ -253,6 +347,11 @@ public class MauiFilter extends Filter {
 	 */
 	private String vocabularyName = "agrovoc";
 
+	/**
+	 * How candidates are found, chosen with the vocabulary name
+	 */
+	private transient IndexingMode indexingMode = createIndexingMode();
+
 	/**
 	 * Vocabulary format
 	 */
@@ -265,39 +364,69 @@ public class MauiFilter extends Filter {
 	public WikiFeatures wikiFeatures = null;
 
 	/**
-	 * Returns the total number of manually assigned topics in a given document
+	 * Returns the total number of manually assigned topics in the last
+	 * training document
 	 *
 	 * @return number of manually assigned topics (int)
+	 * @deprecated the topics of a document are returned by
+	 * GivenKeyphrases.size()
 	 */
+	@Deprecated
 	public int getTotalCorrect() {
 		return totalCorrect;
 	}
 
+	/**
+	 * Throws an IllegalStateException if the model has been prepared for
+	 * concurrent extraction, after which its settings must not change, as
+	 * other threads may be extracting topics with it.
+	 */
+	private void checkNotPrepared() {
+		if (preparedForConcurrency) {
+			throw new IllegalStateException("The model has been prepared for concurrent extraction"
+					+ " and can no longer be changed");
+		}
+	}
+
 	public void setBasicFeatures(boolean useBasicFeatures) {
+		checkNotPrepared();
+		featureLayout = null;
 		this.useBasicFeatures = useBasicFeatures;
 	}
 
 	public void setClassifier(Classifier classifier) {
+		checkNotPrepared();
 		this.classifier = classifier;
+		this.compiledClassifier = null;
 	}
 
 	public void setKeyphrasenessFeature(boolean useKeyphrasenessFeature) {
+		checkNotPrepared();
+		featureLayout = null;
 		this.useKeyphrasenessFeature = useKeyphrasenessFeature;
 	}
 
 	public void setFrequencyFeatures(boolean useFrequencyFeatures) {
+		checkNotPrepared();
+		featureLayout = null;
 		this.useFrequencyFeatures = useFrequencyFeatures;
 	}
 
 	public void setPositionsFeatures(boolean usePositionsFeatures) {
+		checkNotPrepared();
+		featureLayout = null;
 		this.usePositionsFeatures = usePositionsFeatures;
 	}
 
 	public void setThesaurusFeatures(boolean useThesaurusFeatures) {
+		checkNotPrepared();
+		featureLayout = null;
 		this.useThesaurusFeatures = useThesaurusFeatures;
 	}
 
 	public void setWikipediaFeatures(boolean useWikipediaFeatures, WikiFeatures wikiFeatures) {
+		checkNotPrepared();
+		featureLayout = null;
 		this.useWikipediaFeatures = useWikipediaFeatures;
 		this.wikiFeatures = wikiFeatures;
 		if (useWikipediaFeatures && wikiFeatures == null) {
@@ -307,34 +436,162 @@ public class MauiFilter extends Filter {
 	}
 
 	public void setLengthFeature(boolean useLengthFeature) {
+		checkNotPrepared();
+		featureLayout = null;
 		this.useLengthFeature = useLengthFeature;
 	}
 
+	/**
+	 * Sets the fraction of the manually assigned topics of the training
+	 * documents that the pre-filter keeps. If it is above 0 when the model is
+	 * built, a logistic model on TFxIDF, first occurrence and keyphraseness is
+	 * trained with the classifier, and the candidates it scores below the
+	 * threshold for this recall get probability 0 without being scored by
+	 * the classifier. On a built model, changes the threshold of its
+	 * pre-filter, or disables it with 0.
+	 *
+	 * @param recall the fraction of topics to keep, from 0 to 1
+	 */
+	public void setPreFilterRecall(double recall) {
+		checkNotPrepared();
+		if (recall < 0 || recall > 1) {
+			throw new IllegalArgumentException("Recall must be between 0 and 1: " + recall);
+		}
+		this.preFilterRecall = recall;
+	}
+
+	/**
+	 * Returns the number of candidates checked by the pre-filter since the
+	 * statistics were reset.
+	 */
+	public long getPreFilteredCandidates() {
+		return preFilteredCandidates.get();
+	}
+
+	/**
+	 * Returns the number of candidates removed by the pre-filter since the
+	 * statistics were reset.
+	 */
+	public long getPrunedCandidates() {
+		return prunedCandidates.get();
+	}
+
+	public void resetPreFilterStatistics() {
+		preFilteredCandidates.set(0);
+		prunedCandidates.set(0);
+	}
+
+	/**
+	 * Adds an extractor of features that are computed for each candidate
+	 * after those of Maui. It has to be added before the model is built,
+	 * and is saved with it.
+	 */
+	public void addFeatureExtractor(FeatureExtractor extractor) {
+		if (classifierData != null) {
+			throw new IllegalStateException("The model has already been built");
+		}
+		if (featureExtractors == null) {
+			featureExtractors = new ArrayList<FeatureExtractor>();
+		}
+		featureExtractors.add(extractor);
+		numFeatures += extractor.getFeatureNames().length;
+	}
+
 	public void setStopwords(Stopwords stopwords) {
+		checkNotPrepared();
 		this.stopwords = stopwords;
+		clearPseudoPhraseCache();
 	}
 
 	public void setStemmer(Stemmer stemmer) {
+		checkNotPrepared();
 		this.stemmer = stemmer;
+		clearPseudoPhraseCache();
+	}
+
+	/**
+	 * Keeps at most the given number of candidates per document, so that
+	 * the memory used for documents with very many distinct n-grams is
+	 * bounded. When the limit is reached, the least frequent candidate is
+	 * replaced, as described in BoundedCandidateTable, so the frequencies
+	 * may be too high by up to Candidate.getFrequencyError(). Long texts are
+	 * not split into parts while this is set. Use 0 (the default) to keep
+	 * all candidates.
+	 *
+	 * @param maxCandidates the maximum number of candidates
+	 */
+	public void setMaxCandidates(int maxCandidates) {
+		checkNotPrepared();
+		this.maxCandidates = maxCandidates;
+	}
+
+	/**
+	 * Collects the candidates of texts of at least twice the given length
+	 * in parts of about that many characters, in parallel on the common
+	 * fork-join pool. The candidates are the same as when they are
+	 * collected in one pass. This is only done once the model has been
+	 * prepared with prepareForConcurrentExtraction(), and not for texts
+	 * that are read from a Reader. Use 0 (the default) to disable it.
+	 *
+	 * @param length the length of the parts in characters
+	 */
+	public void setCandidateSegmentLength(int length) {
+		checkNotPrepared();
+		this.candidateSegmentLength = length;
+	}
+
+	/**
+	 * Caches the pseudo phrases of up to maxSize strings, so that they are
+	 * not recomputed when the same phrase appears in many documents.
+	 * The cache is not saved with the model. Use 0 to disable caching.
+	 *
+	 * @param maxSize maximum number of cached pseudo phrases
+	 */
+	public void setPseudoPhraseCacheSize(int maxSize) {
+		checkNotPrepared();
+		if (maxSize > 0) {
+			pseudoPhraseCache = new LRUCache<String, String>(maxSize);
+		} else {
+			pseudoPhraseCache = null;
+		}
+	}
+
+	/**
+	 * Returns the cache of pseudo phrases, with its hit, miss and eviction
+	 * counts, or null if pseudo phrases are not cached.
+	 */
+	public LRUCache<String, String> getPseudoPhraseCache() {
+		return pseudoPhraseCache;
+	}
+
+	private void clearPseudoPhraseCache() {
+		if (pseudoPhraseCache != null) {
+			pseudoPhraseCache.clear();
+		}
 	}
 
 	public void setNumIndexers(int numIndexers) {
+		checkNotPrepared();
 		this.numIndexers = numIndexers;
 	}
 
 	public void setMinNumOccur(int minNumOccur) {
+		checkNotPrepared();
 		this.minOccurFrequency = minNumOccur;
 	}
 
 	public void setMaxPhraseLength(int maxPhraseLength) {
+		checkNotPrepared();
 		this.maxPhraseLength = maxPhraseLength;
 	}
 
 	public void setMinPhraseLength(int minPhraseLength) {
+		checkNotPrepared();
 		this.minPhraseLength = minPhraseLength;
 	}
 
 	public void setDocumentLanguage(String documentLanguage) {
+		checkNotPrepared();
 		this.documentLanguage = documentLanguage;
 	}
 
@@ -343,6 +600,7 @@ public class MauiFilter extends Filter {
 	}
 
 	public void setVocabularyName(String vocabularyName) {
+		checkNotPrepared();
 		if (vocabularyName.equals("none")) {
 			setThesaurusFeatures(false);
 			this.vocabularyName = "none";
@@ -351,9 +609,11 @@ public class MauiFilter extends Filter {
 			String vocabularyFileName = fileName.substring(0, fileName.indexOf("."));
 			this.vocabularyName = vocabularyFileName;
 		}
+		indexingMode = createIndexingMode();
 	}
 
 	public void setVocabularyFormat(String vocabularyFormat) {
+		checkNotPrepared();
 		this.vocabularyFormat = vocabularyFormat;
 	}
 
@@ -394,6 +654,7 @@ public class MauiFilter extends Filter {
 	}
 
 	public void setDocumentAtt(int documentAtt) {
+		checkNotPrepared();
 		this.documentAtt = documentAtt;
 	}
 
@@ -402,13 +663,20 @@ public class MauiFilter extends Filter {
 	}
 
 	public void setKeyphrasesAtt(int keyphrasesAtt) {
+		checkNotPrepared();
 		this.keyphrasesAtt = keyphrasesAtt;
 	}
 
 	public void setVocabulary(Vocabulary vocabulary) {
+		checkNotPrepared();
+		featureLayout = null;
 		this.vocabulary = vocabulary;
 	}
 
+	public Vocabulary getVocabulary() {
+		return vocabulary;
+	}
+
 	/**
 	 * Returns a string describing this filter
 	 *
@@ -441,25 +709,9 @@ public class MauiFilter extends Filter {
 		}
 
 		try {
-			phraseFilter = new MauiPhraseFilter();
-			int[] arr = new int[1];
-			arr[0] = documentAtt;
-			phraseFilter.setAttributeIndicesArray(arr);
-			phraseFilter.setInputFormat(instanceInfo);
+			super.setInputFormat(instanceInfo);
 		} catch (Exception e) {
-			throw new MauiFilterException("Exception loading MauiPhraseFilter");
-		}
-
-		try {
-			if (vocabularyName.equals("none")) {
-				numbersFilter = new NumbersFilter();
-				numbersFilter.setInputFormat(phraseFilter.getOutputFormat());
-				super.setInputFormat(numbersFilter.getOutputFormat());
-			} else {
-				super.setInputFormat(phraseFilter.getOutputFormat());
-			}
-		} catch (Exception e) {
-			throw new MauiFilterException("Exception loading NumbersFilter");
+			throw new MauiFilterException("Exception setting the input format");
 		}
 
 		return false;
@@ -513,25 +765,7 @@ public class MauiFilter extends Filter {
 			log.info("-- Reading instance");
 		}
 
-		try {
-			phraseFilter.input(instance);
-			phraseFilter.batchFinished();
-			instance = phraseFilter.output();
-		} catch (Exception e) {
-			throw new MauiFilterException("Error applying PhraseFilter ");
-		}
-
-		if (vocabularyName.equals("none")) {
-			try {
-				numbersFilter.input(instance);
-				numbersFilter.batchFinished();
-				instance = numbersFilter.output();
-			} catch (Exception e) {
-				throw new MauiFilterException("Error applying NumbersFilter ");
-			}
-		}
-
-		if (globalDictionary == null) {
+		if (globalFrequencies == null) {
 
 			bufferInput(instance);
 			return false;
@@ -563,11 +797,14 @@ public class MauiFilter extends Filter {
 			throw new MauiFilterException("No input instance format defined");
 		}
 
-		if (globalDictionary == null) {
+		if (globalFrequencies == null) {
 			selectCandidates();
 			buildGlobalDictionaries();
 			buildClassifier();
 			convertPendingInstances();
+			if (lexicon != null) {
+				lexicon.freeze();
+			}
 		}
 		flushInput();
 		m_NewBatch = true;
@@ -581,6 +818,7 @@ public class MauiFilter extends Filter {
 		}
 
 		allCandidates = new HashMap<Instance, HashMap<String, Candidate>>();
+		allKeyphrases = new HashMap<Instance, GivenKeyphrases>();
 
 		// Convert pending input instances into data for classifier
 		int totalDocuments = getInputFormat().numInstances();
@@ -605,10 +843,26 @@ public class MauiFilter extends Filter {
 			}
 			allCandidates.put(current, candidateList);
 
+			// The manually assigned topics, parsed once for all steps
+			GivenKeyphrases keyphrases = getGivenKeyphrases(current.stringValue(keyphrasesAtt));
+			if (keyphrases != null) {
+				totalCorrect = keyphrases.size();
+			}
+			allKeyphrases.put(current, keyphrases);
+
 		}
 
 	}
 
+	/**
+	 * Discards the document frequencies of the model, so that the global
+	 * dictionaries and the classifier are built again from the next batch
+	 * of documents.
+	 */
+	public void clearGlobalDictionary() {
+		globalFrequencies = null;
+	}
+
 	/**
 	 * Builds the global dictionaries.
 	 */
@@ -619,15 +873,10 @@ public class MauiFilter extends Filter {
 
 		// Build a dictionary of candidates with associated
 		// document frequencies
-		globalDictionary = new HashMap<String, Counter>();
+		globalFrequencies = new CountTable();
 		for (HashMap<String, Candidate> candidates : allCandidates.values()) {
 			for (String candidateName : candidates.keySet()) {
-				Counter counter = globalDictionary.get(candidateName);
-				if (counter == null) {
-					globalDictionary.put(candidateName, new Counter());
-				} else {
-					counter.increment();
-				}
+				globalFrequencies.increment(candidateName);
 			}
 		}
 
@@ -636,31 +885,21 @@ public class MauiFilter extends Filter {
 		}
 		// Build a dictionary of candidates that occur as keyphrases
 		// with associated keyphrase frequencies
-		keyphraseDictionary = new HashMap<String, Counter>();
+		keyphraseFrequencies = new CountTable();
 		for (int i = 0; i < getInputFormat().numInstances(); i++) {
-			String str = getInputFormat().instance(i)
-					.stringValue(keyphrasesAtt);
-			HashMap<String, Counter> hash = getGivenKeyphrases(str);
-			if (hash != null) {
-				for (String term : hash.keySet()) {
-
-					Counter documentCount = hash.get(term);
-					Counter counter = keyphraseDictionary.get(term);
-					if (counter == null) {
-						keyphraseDictionary.put(term, new Counter(documentCount
-								.value()));
-					} else {
-						counter.increment(documentCount.value());
-					}
+			GivenKeyphrases keyphrases = allKeyphrases.get(getInputFormat().instance(i));
+			if (keyphrases != null) {
+				for (String term : keyphrases.getNames()) {
+					keyphraseFrequencies.increment(term, keyphrases.getCount(term));
 				}
 			}
 		}
 
 		if (debugMode) {
 			log.info("--- Statistics about global dictionaries: ");
-			log.info("\t" + globalDictionary.size()
+			log.info("\t" + globalFrequencies.size()
 					+ " terms in the global dictionary");
-			log.info("\t" + keyphraseDictionary.size()
+			log.info("\t" + keyphraseFrequencies.size()
 					+ " terms in the keyphrase dictionary");
 		}
 
@@ -691,6 +930,7 @@ public class MauiFilter extends Filter {
 				atts.addElement(new Attribute("Wikipedia_keyphraseness")); // 10
 				atts.addElement(new Attribute("Wikipedia_inlinks")); // 11
 				atts.addElement(new Attribute("Wikipedia_generality")); // 12
+				addFeatureAttributes(atts);
 
 			} else if (i == keyphrasesAtt) {
 				if (nominalClassValue) {
@@ -707,18 +947,19 @@ public class MauiFilter extends Filter {
 		classifierData = new Instances("ClassifierData", atts, 0);
 
 		classifierData.setClassIndex(numFeatures);
+		featureLayout = buildFeatureLayout();
 
 		if (debugMode) {
 			log.info("--- Converting instances for classifier");
 		}
 		int totalDocuments = getInputFormat().numInstances();
+		FeatureMatrix matrix = new FeatureMatrix();
 		// Convert pending input instances into data for classifier
 		for (int i = 0; i < totalDocuments; i++) {
 			Instance current = getInputFormat().instance(i);
 
 			// Get the key phrases for the document
-			String keyphrases = current.stringValue(keyphrasesAtt);
-			HashMap<String, Counter> hashKeyphrases = getGivenKeyphrases(keyphrases);
+			GivenKeyphrases hashKeyphrases = allKeyphrases.get(current);
 
 			// Get the phrases for the document
 			HashMap<String, Candidate> candidateList = allCandidates
@@ -733,16 +974,18 @@ public class MauiFilter extends Filter {
 				log.info("--- Computing features for document " + i + " out of " + totalDocuments + "...");
 			}
 
+			// ignore all candidates that appear less than a threshold
+			ArrayList<Candidate> candidates = new ArrayList<Candidate>(candidateList.size());
 			for (Candidate candidate : candidateList.values()) {
-
-				// ignore all candidates that appear less than a threshold
-				if (candidate.getFrequency() < minOccurFrequency) {
-					continue;
+				if (candidate.getFrequency() >= minOccurFrequency) {
+					candidates.add(candidate);
 				}
+			}
 
-				// compute feature values
-				double[] vals = computeFeatureValues(candidate, true,
-						hashKeyphrases, candidateList);
+			// compute feature values
+			fillFeatureMatrix(candidates, true, hashKeyphrases, candidateList, matrix);
+			for (int row = 0; row < candidates.size(); row++) {
+				double[] vals = matrix.getRow(row);
 
 				if (vals[vals.length - 1] == 0) {
 					countNeg++;
@@ -800,149 +1043,81 @@ public class MauiFilter extends Filter {
 			log.info(classifier.toString());
 		}
 
+		preFilter = null;
+		if (preFilterRecall > 0) {
+			buildPreFilter();
+		}
+
 		// Save space
 		classifierData = new Instances(classifierData, 0);
+
+		compileClassifier();
 	}
 
 	/**
-	 * Conmputes the feature values for a given phrase.
+	 * Trains the pre-filter on the data of the classifier.
 	 */
-	private double[] computeFeatureValues(Candidate candidate,
-			boolean training, HashMap<String, Counter> hashKeyphrases,
-			HashMap<String, Candidate> candidates) {
-
-		// Compute feature values
-		double[] newInst = new double[numFeatures + 1];
-
-		String id = candidate.getName();
-		String name = candidate.getName();
-		String original = candidate.getBestFullForm();
-		String title = candidate.getTitle();
-
-		// Compute TFxIDF
-		Counter counterGlobal = (Counter) globalDictionary.get(name);
-		double globalVal = 0;
-		if (counterGlobal != null) {
-			globalVal = counterGlobal.value();
-			if (training) {
-				globalVal = globalVal - 1;
+	private void buildPreFilter() {
+		int[] columns = new int[] { tfidfIndex, firstOccurIndex, domainKeyphIndex };
+		preFilter = new PreFilter(classifierData, columns);
+
+		double threshold = preFilter.getThreshold(preFilterRecall);
+		int numPruned = 0;
+		for (int i = 0; i < classifierData.numInstances(); i++) {
+			if (preFilter.score(classifierData.instance(i)) < threshold) {
+				numPruned++;
 			}
 		}
-		double tf = candidate.getTermFrequency();
-		double idf = -Math.log((globalVal + 1) / ((double) numDocs + 1));
+		log.info("--- Pre-filter removes " + numPruned + " of " + classifierData.numInstances()
+				+ " training candidates, keeping " + preFilterRecall + " of "
+				+ preFilter.getNumPositives() + " topics");
+	}
 
-		if (useBasicFeatures) {
-			newInst[tfidfIndex] = tf * idf;
-			newInst[firstOccurIndex] = candidate.getFirstOccurrence();
+	/**
+	 * Compiles the classifier into flat arrays, if it is supported by
+	 * CompiledClassifier.
+	 */
+	private void compileClassifier() {
+		compiledClassifier = CompiledClassifier.compile(classifier, classifierData);
+		if (debugMode) {
+			if (compiledClassifier != null) {
+				log.info("--- Compiled the classifier into " + compiledClassifier.numNodes() + " nodes");
+			} else {
+				log.info("--- The classifier could not be compiled");
+			}
 		}
+	}
 
-		if (useFrequencyFeatures) {
-			newInst[tfIndex] = tf;
-			newInst[idfIndex] = idf;
+	/**
+	 * Returns the class value of a candidate: whether, or by how many
+	 * indexers, it has been assigned manually.
+	 */
+	private double getClassValue(Candidate candidate, GivenKeyphrases hashKeyphrases) {
+		if (hashKeyphrases == null) { // No author-assigned keyphrases
+			return 0;
 		}
-
-		if (usePositionsFeatures) {
-			newInst[lastOccurIndex] = candidate.getLastOccurrence();
-			newInst[spreadOccurIndex] = candidate.getSpread();
+		String name = indexingMode.getKeyphraseName(candidate);
+		if (!hashKeyphrases.contains(name)) {
+			return 0; // Not a keyphrase
 		}
-
-		if (useKeyphrasenessFeature) {
-			if (!vocabularyName.equals("none")) {
-				name = title;
-			}
-			Counter domainKeyphr = keyphraseDictionary.get(name);
-
-			if ((training) && (hashKeyphrases != null)
-					&& (hashKeyphrases.containsKey(name))) {
-				newInst[domainKeyphIndex] = domainKeyphr.value() - 1;
-			} else {
-				if (domainKeyphr != null) {
-					newInst[domainKeyphIndex] = domainKeyphr.value();
-				} else {
-					newInst[domainKeyphIndex] = 0;
-				}
-			}
+		if (nominalClassValue) {
+			return 1; // Keyphrase
 		}
+		return (double) hashKeyphrases.getCount(name) / numIndexers; // Keyphrase
+	}
 
-		if (useLengthFeature) {
-
-			if (original == null) {
-				log.warn("Warning! Problem with candidate " + name);
-				newInst[lengthIndex] = 1.0;
-			} else {
-				// String[] words = candidate.getTitle().split(" ");
-				String[] words = original.split(" ");
-				newInst[lengthIndex] = (double) words.length;
-			}
+	/**
+	 * Adds the attributes of the added feature extractors.
+	 */
+	private void addFeatureAttributes(FastVector atts) {
+		if (featureExtractors == null) {
+			return;
 		}
-
-		if (useThesaurusFeatures && vocabulary != null) {
-			int nodeDegree = 0;
-			ArrayList<String> relatedTerms = vocabulary.getRelated(id);
-			if (relatedTerms != null) {
-				for (String relatedTerm : relatedTerms) {
-					if (candidates.get(relatedTerm) != null) {
-						nodeDegree++;
-					}
-				}
-			}
-			if (nodeDegree != 0) {
-				//	log.info(candidate + " has node degree " + nodeDegree);
+		for (FeatureExtractor extractor : featureExtractors) {
+			for (String name : extractor.getFeatureNames()) {
+				atts.addElement(new Attribute(name));
 			}
-			newInst[nodeDegreeIndex] = (double) nodeDegree;
-			newInst[generalityIndex] = vocabulary.getGenerality(id);
-			
-		}
-
-		if (useWikipediaFeatures) {
-					
-			double totalWikipediaKeyphraseness = 0;
-			HashMap<String, Counter> fullForms = candidate.getFullForms();
-			for (String form : fullForms.keySet()) {
-				totalWikipediaKeyphraseness += wikiFeatures.getWikipediaKeyphraseness(form);
-			}
-			newInst[totalWikipKeyphrIndex] = totalWikipediaKeyphraseness;
-			
-			String possibleWikipediaName = candidate.getTitle();
-			if (vocabularyName.equals("none")) {
-				possibleWikipediaName = candidate.getBestFullForm();
-			}
-			
-			newInst[invWikipFreqIndex] = wikiFeatures.getInversedWikipediaFrequency(possibleWikipediaName);
-			newInst[wikipGeneralityIndex] = wikiFeatures.getWikipediaGenerality(possibleWikipediaName);
-			
-			// log.info(candidate.getBestFullForm() + " >> " + newInst[totalWikipKeyphrIndex] + " " + newInst[invWikipFreqIndex] + " " + newInst[this.wikipGeneralityIndex]);
-		}        
-
-		// Compute class value
-		String checkManual = name;
-		if (!vocabularyName.equals("none")) {
-			checkManual = candidate.getTitle();
 		}
-
-		if (hashKeyphrases == null) { // No author-assigned keyphrases
-			// newInst[numFeatures] = Instance.missingValue();
-			newInst[numFeatures] = 0;
-		} else if (!hashKeyphrases.containsKey(checkManual)) {
-			newInst[numFeatures] = 0; // Not a keyphrase
-		} else {
-			if (nominalClassValue) {
-				newInst[numFeatures] = 1; // Keyphrase
-			} else {
-				double c = (double) ((Counter) hashKeyphrases.get(checkManual))
-						.value()
-						/ numIndexers;
-				newInst[numFeatures] = c; // Keyphrase
-			}
-		}
-		/*
-         log.info(candidate.toString());
-         log.info("\tTFxIDF " + newInst[tfidfIndex]);
-         log.info("\ttotalWikipKeyphrIndex " + newInst[totalWikipKeyphrIndex]);
-         log.info("\tfirstOccurIndex " + newInst[firstOccurIndex]);
-         log.info("\tsemRelIndex " + newInst[semRelIndex]);
-		 */
-		return newInst;
 	}
 
 	/**
@@ -977,6 +1152,7 @@ public class MauiFilter extends Filter {
 				atts.addElement(new Attribute("Wikipedia_keyphraseness")); // 10
 				atts.addElement(new Attribute("Wikipedia_inlinks")); // 11
 				atts.addElement(new Attribute("Wikipedia_generality")); // 12
+				addFeatureAttributes(atts);
 
 				atts.addElement(new Attribute("Probability")); // 16
 				atts.addElement(new Attribute("Rank")); // 17
@@ -1024,11 +1200,15 @@ public class MauiFilter extends Filter {
 		}
 
 		// Get the key phrases for the document
-		HashMap<String, Counter> hashKeyphrases = null;
+		GivenKeyphrases hashKeyphrases = null;
 
 		if (!instance.isMissing(keyphrasesAtt)) {
-			String keyphrases = instance.stringValue(keyphrasesAtt);
-			hashKeyphrases = getGivenKeyphrases(keyphrases);
+			if (allKeyphrases != null && allKeyphrases.containsKey(instance)) {
+				hashKeyphrases = allKeyphrases.get(instance);
+			} else {
+				String keyphrases = instance.stringValue(keyphrasesAtt);
+				hashKeyphrases = getGivenKeyphrases(keyphrases);
+			}
 		}
 
 		// Get the document text
@@ -1045,47 +1225,14 @@ public class MauiFilter extends Filter {
 			log.info(candidateList.size() + " candidates ");
 		}
 
-		// Set indices for key attributes
-		int tfidfAttIndex = documentAtt + 2;
-		int distAttIndex = documentAtt + 3;
-		int probsAttIndex = documentAtt + numFeatures;
-
 		int countPos = 0;
 		int countNeg = 0;
 
-		// Go through the phrases and convert them into instances
-		for (Candidate candidate : candidateList.values()) {
-
-			if (candidate.getFrequency() < minOccurFrequency) {
-				continue;
-			}
-
-			String name = candidate.getName();
-			String orig = candidate.getBestFullForm();
-			if (!vocabularyName.equals("none")) {
-				orig = candidate.getTitle();
-			}
-
-			double[] vals = computeFeatureValues(candidate, training,
-					hashKeyphrases, candidateList);
-
-			Instance inst = new Instance(instance.weight(), vals);
-
-			inst.setDataset(classifierData);
-
-			double[] probs = null;
-			try {
-				// Get probability of a phrase being key phrase
-				probs = classifier.distributionForInstance(inst);
-			} catch (Exception e) {
-				log.error("Exception while getting probability for candidate " + candidate.getName());
-				continue;
-			}
+		// Go through the ranked phrases and convert them into instances
+		for (ScoredCandidate scored : scoreCandidates(candidateList, training, hashKeyphrases)) {
 
-			double prob = probs[0];
-			if (nominalClassValue) {
-				prob = probs[1];
-			}
+			Candidate candidate = scored.candidate;
+			double[] vals = scored.features;
 
 			// Compute attribute values for final instance
 			double[] newInst = new double[instance.numAttributes() + numFeatures + 2];
@@ -1100,43 +1247,41 @@ public class MauiFilter extends Filter {
 
 					// 0 Add phrase
 					int index = outputFormatPeek().attribute(pos)
-							.addStringValue(name);
+							.addStringValue(candidate.getName());
 					newInst[pos++] = index; 
 
 					// 1 Add original version
-					if (orig != null) {
-						index = outputFormatPeek().attribute(pos).addStringValue(orig);
-					} else {
-						index = outputFormatPeek().attribute(pos).addStringValue(name);
-					}
+					index = outputFormatPeek().attribute(pos).addStringValue(getOutputForm(candidate));
 
 					// 2
 					newInst[pos++] = index;
 
 					// Add features
-					newInst[pos++] = inst.value(tfIndex); // 3
-					newInst[pos++] = inst.value(idfIndex); // 4
-					newInst[pos++] = inst.value(tfidfIndex); // 5
-					newInst[pos++] = inst.value(firstOccurIndex); // 6
-					newInst[pos++] = inst.value(lastOccurIndex); // 7
-					newInst[pos++] = inst.value(spreadOccurIndex); // 8
-					newInst[pos++] = inst.value(domainKeyphIndex); // 9
-					newInst[pos++] = inst.value(lengthIndex); // 10 
-					newInst[pos++] = inst.value(generalityIndex); // 11
-					newInst[pos++] = inst.value(nodeDegreeIndex); // 12
-					newInst[pos++] = inst.value(invWikipFreqIndex); // 13
-					newInst[pos++] = inst.value(totalWikipKeyphrIndex); // 14
-					newInst[pos++] = inst.value(wikipGeneralityIndex); // 15
+					newInst[pos++] = vals[tfIndex]; // 3
+					newInst[pos++] = vals[idfIndex]; // 4
+					newInst[pos++] = vals[tfidfIndex]; // 5
+					newInst[pos++] = vals[firstOccurIndex]; // 6
+					newInst[pos++] = vals[lastOccurIndex]; // 7
+					newInst[pos++] = vals[spreadOccurIndex]; // 8
+					newInst[pos++] = vals[domainKeyphIndex]; // 9
+					newInst[pos++] = vals[lengthIndex]; // 10 
+					newInst[pos++] = vals[generalityIndex]; // 11
+					newInst[pos++] = vals[nodeDegreeIndex]; // 12
+					newInst[pos++] = vals[invWikipFreqIndex]; // 13
+					newInst[pos++] = vals[totalWikipKeyphrIndex]; // 14
+					newInst[pos++] = vals[wikipGeneralityIndex]; // 15
+					for (int j = wikipGeneralityIndex + 1; j < numFeatures; j++) {
+						newInst[pos++] = vals[j];
+					}
 
 					// Add probability
-					probsAttIndex = pos;
-					newInst[pos++] = prob; // 16
+					newInst[pos++] = scored.probability; // 16
 
-					// Set rank to missing (computed below)
-					newInst[pos++] = Instance.missingValue(); // 17
+					// Add rank
+					newInst[pos++] = scored.rank; // 17
 
 				} else if (i == keyphrasesAtt) {
-					newInst[pos++] = inst.classValue();
+					newInst[pos++] = vals[numFeatures];
 				} else {
 					newInst[pos++] = instance.value(i);
 				}
@@ -1146,7 +1291,7 @@ public class MauiFilter extends Filter {
 			ins.setDataset(outputFormatPeek());
 			vector.addElement(ins);
 
-			if (inst.classValue() == 0) {
+			if (vals[numFeatures] == 0) {
 				countNeg++;
 			} else {
 				countPos++;
@@ -1157,250 +1302,1615 @@ public class MauiFilter extends Filter {
 			log.info(countPos + " positive; " + countNeg + " negative instances");
 		}
 
-		// Sort phrases according to their distance (stable sort)
-		double[] vals = new double[vector.size()];
-		for (int i = 0; i < vals.length; i++) {
-			vals[i] = ((Instance) vector.elementAt(i)).value(distAttIndex);
-		}
-		FastVector newVector = new FastVector(vector.size());
-		int[] sortedIndices = Utils.stableSort(vals);
-		for (int i = 0; i < vals.length; i++) {
-			newVector.addElement(vector.elementAt(sortedIndices[i]));
-		}
-		vector = newVector;
+		return vector;
+	}
 
-		// Sort phrases according to their tfxidf value (stable sort)
-		for (int i = 0; i < vals.length; i++) {
-			vals[i] = -((Instance) vector.elementAt(i)).value(tfidfAttIndex);
-		}
-		newVector = new FastVector(vector.size());
-		sortedIndices = Utils.stableSort(vals);
-		for (int i = 0; i < vals.length; i++) {
-			newVector.addElement(vector.elementAt(sortedIndices[i]));
-		}
-		vector = newVector;
+	/**
+	 * Extracts the topics of a document. Unlike input() and output(), no
+	 * Weka instances are created for the document and its candidates, so
+	 * nothing is added to the string attributes of the output format, and
+	 * the memory used is released when the call returns. The topics are
+	 * ranked in the same order as the instances returned by output().
+	 *
+	 * @param text the document text
+	 * @param maxTopics the maximum number of topics to return
+	 * @return the topics with a probability above 0, best first, with the
+	 * values of their features
+	 * @throws MauiFilterException if the model has not been built
+	 */
+	public List<Topic> extractTopics(CharSequence text, int maxTopics) throws MauiFilterException {
+		return extractTopics(text, maxTopics, 0.0, null);
+	}
 
-		// Sort phrases according to their probability (stable sort)
-		for (int i = 0; i < vals.length; i++) {
-			vals[i] = 1 - ((Instance) vector.elementAt(i)).value(probsAttIndex);
-		}
-		newVector = new FastVector(vector.size());
-		sortedIndices = Utils.stableSort(vals);
-		for (int i = 0; i < vals.length; i++) {
-			newVector.addElement(vector.elementAt(sortedIndices[i]));
-		}
-		vector = newVector;
+	/**
+	 * Extracts the topics of a document like extractTopics(text, maxTopics),
+	 * and marks the topics that are among the given keyphrases as correct.
+	 * These are the same topics, in the same order, as the first maxTopics
+	 * instances returned by output() with a probability above minProbability.
+	 *
+	 * @param text the document text
+	 * @param maxTopics the maximum number of topics to return
+	 * @param minProbability the probability that the topics must exceed
+	 * @param givenKeyphrases the keyphrases of the document, one per line,
+	 * or null
+	 * @return the topics, best first, with the values of their features
+	 * @throws MauiFilterException if the model has not been built
+	 */
+	public List<Topic> extractTopics(CharSequence text, int maxTopics, double minProbability,
+			String givenKeyphrases) throws MauiFilterException {
 
-		// Compute rank of phrases. Check for subphrases that are ranked
-		// lower than superphrases and assign probability -1 and set the
-		// rank to Integer.MAX_VALUE
-		int rank = 1;
-		for (int i = 0; i < vals.length; i++) {
-			Instance currentInstance = (Instance) vector.elementAt(i);
+		if (globalFrequencies == null || classifier == null) {
+			throw new MauiFilterException("The model has not been built");
+		}
 
-			// log.info(vals[i] + "\t" + currentInstance);
+		GivenKeyphrases hashKeyphrases = null;
+		if (givenKeyphrases != null && givenKeyphrases.length() > 0) {
+			hashKeyphrases = getGivenKeyphrases(givenKeyphrases);
+		}
 
-			// Short cut: if phrase very unlikely make rank very low and
-			// continue
-			if (Utils.grOrEq(vals[i], 1.0)) {
-				currentInstance.setValue(probsAttIndex + 1, Integer.MAX_VALUE);
-				continue;
-			}
+		return getTopics(getCandidates(text), maxTopics, minProbability, hashKeyphrases);
+	}
 
-			// Otherwise look for super phrase starting with first phrase
-			// in list that has same probability, TFxIDF value, and distance as
-			// current phrase. We do this to catch all superphrases
-			// that have same probability, TFxIDF value and distance as current
-			// phrase.
-			int startInd = i;
-			while (startInd < vals.length) {
-				Instance inst = (Instance) vector.elementAt(startInd);
-				if ((inst.value(tfidfAttIndex) != currentInstance
-						.value(tfidfAttIndex))
-						|| (inst.value(probsAttIndex) != currentInstance
-						.value(probsAttIndex))
-						|| (inst.value(distAttIndex) != currentInstance
-						.value(distAttIndex))) {
-					break;
-				}
-				startInd++;
-			}
-			currentInstance.setValue(probsAttIndex + 1, rank++);
+	/**
+	 * Extracts the topics of a document that is read from a reader, like
+	 * extractTopics(text, maxTopics). The text is not kept in memory: its
+	 * candidates are collected as it is read, see getCandidates(Reader).
+	 *
+	 * @param reader the document text, which is read to the end but not closed
+	 * @param maxTopics the maximum number of topics to return
+	 * @return the topics with a probability above 0, best first, with the
+	 * values of their features
+	 * @throws IOException if the text cannot be read
+	 * @throws MauiFilterException if the model has not been built
+	 */
+	public List<Topic> extractTopics(Reader reader, int maxTopics) throws IOException, MauiFilterException {
 
+		if (globalFrequencies == null || classifier == null) {
+			throw new MauiFilterException("The model has not been built");
 		}
 
-		return vector;
+		return getTopics(getCandidates(reader), maxTopics, 0.0, null);
 	}
 
 	/**
-	 * Expects an empty hashtable. Fills the hashtable with the candidate
-	 * keyphrases Stores the position, the number of occurences, and the most
-	 * commonly occurring orgininal version of each candidate in the Candidate
-	 * object.
-	 *
-	 * Returns the total number of words in the document.
+	 * Extracts the topics of a document like extractTopics(text, maxTopics),
+	 * within a time limit. When two thirds of the time have elapsed, the
+	 * rest of the text is skipped, and when all of it has elapsed, the
+	 * remaining candidates are not scored. The candidates are scored from
+	 * the most to the least frequent, and at least maxTopics of them are
+	 * scored. The extraction stops in the same way if the calling thread is
+	 * interrupted, and the thread stays interrupted.
+	 * <br>
+	 * If nothing was left out, the topics are the same as those of
+	 * extractTopics(text, maxTopics).
 	 *
-	 * @throws Exception
+	 * @param text the document text
+	 * @param maxTopics the maximum number of topics to return
+	 * @param timeout the time the extraction may take
+	 * @param unit the unit of the timeout
+	 * @return the best topics among the candidates that were scored, and
+	 * whether some were left out
+	 * @throws MauiFilterException if the model has not been built
 	 */
-	public HashMap<String, Candidate> getCandidates(String text) {
+	public ExtractionResult extractTopics(CharSequence text, int maxTopics, long timeout, TimeUnit unit)
+			throws MauiFilterException {
 
-		if (debugMode) {
-			log.info("---- Extracting candidates... ");
+		if (globalFrequencies == null || classifier == null) {
+			throw new MauiFilterException("The model has not been built");
 		}
 
-		HashMap<String, Candidate> candidatesTable = new HashMap<String, Candidate>();
-
-		String[] buffer = new String[maxPhraseLength];
+		Deadline deadline = new Deadline(unit.toNanos(timeout));
+		List<Topic> topics = getTopics(getCandidates(text, deadline), maxTopics, 0.0, null, deadline);
+		return new ExtractionResult(topics, deadline.truncated);
+	}
 
-		// Extracting strings of a predefined length from text
+	/**
+	 * Returns the best topics among the candidates of a document.
+	 */
+	private List<Topic> getTopics(HashMap<String, Candidate> candidateList, int maxTopics,
+			double minProbability, GivenKeyphrases hashKeyphrases) {
+		return getTopics(candidateList, maxTopics, minProbability, hashKeyphrases, null);
+	}
 
-		// log.info(text);
-		StringTokenizer tok = new StringTokenizer(text, "\n");
-		int pos = 0;
-		int totalFrequency = 0;
-		int firstWord = 0;
-		while (tok.hasMoreTokens()) {
-			String token = tok.nextToken();
+	/**
+	 * Returns the best topics among the candidates of a document that
+	 * could be scored before the deadline, if there is one.
+	 */
+	private List<Topic> getTopics(HashMap<String, Candidate> candidateList, int maxTopics,
+			double minProbability, GivenKeyphrases hashKeyphrases, Deadline deadline) {
+
+		List<Topic> topics = new ArrayList<Topic>();
+		for (ScoredCandidate scored : selectTopCandidates(candidateList, maxTopics,
+				minProbability, hashKeyphrases, deadline)) {
+			Candidate candidate = scored.candidate;
+			String id = indexingMode.getId(candidate);
+			Map<String, Double> features = new LinkedHashMap<String, Double>();
+			for (int i = 0; i < numFeatures; i++) {
+				features.put(classifierData.attribute(i).name(), scored.features[i]);
+			}
+			Topic topic = new Topic(getOutputForm(candidate), id, scored.probability, features);
+			if (hashKeyphrases != null) {
+				topic.setCorrectness((int) scored.features[numFeatures] == 1);
+			}
+			topics.add(topic);
+		}
+		return topics;
+	}
 
-			int numSeen = 0;
-			StringTokenizer wordTok = new StringTokenizer(token, " ");
+	/**
+	 * Prepares the model for extracting topics with extractTopics() from
+	 * several threads at the same time. The stemmers of the model and of
+	 * the vocabulary are wrapped into CachingStemmers, which only let one
+	 * thread at a time use a stemmer, and the structures that are built on
+	 * first use are built now. The model must not be changed afterwards:
+	 * its setters then throw an IllegalStateException.
+	 *
+	 * @throws MauiFilterException if the model has not been built
+	 */
+	public void prepareForConcurrentExtraction() throws MauiFilterException {
+		if (globalFrequencies == null || classifier == null) {
+			throw new MauiFilterException("The model has not been built");
+		}
+		if (!(stemmer instanceof CachingStemmer)) {
+			setStemmer(new CachingStemmer(stemmer));
+		}
+		getDocumentLexicon(null);
+		getFeatureLayout();
+		indexingMode.prepareForConcurrency();
+		preparedForConcurrency = true;
+	}
 
-			while (wordTok.hasMoreTokens()) {
+	/**
+	 * Returns how a candidate is shown in the output: its title in the
+	 * vocabulary, or its most frequent form in the document.
+	 */
+	private String getOutputForm(Candidate candidate) {
+		String orig = indexingMode.getForm(candidate);
+		if (orig == null) {
+			return candidate.getName();
+		}
+		return orig;
+	}
+
+	/**
+	 * Computes the feature values and probabilities of the candidates, and
+	 * ranks them by probability and IDF (descending), then by TFxIDF
+	 * (ascending), so that ties are broken as they always have been. Candidates
+	 * that are very unlikely to be topics get rank Integer.MAX_VALUE.
+	 */
+	private List<ScoredCandidate> scoreCandidates(HashMap<String, Candidate> candidateList,
+			boolean training, GivenKeyphrases hashKeyphrases) {
+		FeatureMatrix matrix = getFeatureMatrix();
+		List<ScoredCandidate> scoredCandidates = computeScores(candidateList, training, hashKeyphrases, matrix);
+		Collections.sort(scoredCandidates, RANKING_ORDER);
+		assignRanks(scoredCandidates);
+		for (ScoredCandidate scored : scoredCandidates) {
+			scored.features = matrix.getRow(scored.row);
+		}
+		releaseFeatureMatrix(matrix);
+		return scoredCandidates;
+	}
+
+	/**
+	 * Returns the first maxTopics of the candidates in the order of
+	 * scoreCandidates(), without sorting all of them. Only candidates with
+	 * a probability above minProbability are returned.
+	 */
+	private List<ScoredCandidate> selectTopCandidates(HashMap<String, Candidate> candidateList,
+			int maxTopics, double minProbability, GivenKeyphrases hashKeyphrases) {
+		return selectTopCandidates(candidateList, maxTopics, minProbability, hashKeyphrases, null);
+	}
+
+	/**
+	 * Selects the top candidates among those that can be scored before the
+	 * deadline, if there is one.
+	 */
+	private List<ScoredCandidate> selectTopCandidates(HashMap<String, Candidate> candidateList,
+			int maxTopics, double minProbability, GivenKeyphrases hashKeyphrases,
+			Deadline deadline) {
+		FeatureMatrix matrix = getFeatureMatrix();
+		List<ScoredCandidate> scoredCandidates = computeScores(candidateList, false, hashKeyphrases,
+				matrix, deadline, maxTopics);
+
+		// keep the best candidates seen so far, the worst one at the head
+		PriorityQueue<ScoredCandidate> best = new PriorityQueue<ScoredCandidate>(
+				Math.max(1, Math.min(maxTopics, scoredCandidates.size())),
+				Collections.reverseOrder(RANKING_ORDER));
+		for (ScoredCandidate scored : scoredCandidates) {
+			if (scored.probability <= minProbability || maxTopics <= 0) {
+				continue;
+			}
+			if (best.size() < maxTopics) {
+				best.add(scored);
+			} else if (RANKING_ORDER.compare(scored, best.peek()) < 0) {
+				best.poll();
+				best.add(scored);
+			}
+		}
+
+		ArrayList<ScoredCandidate> selected = new ArrayList<ScoredCandidate>(best);
+		Collections.sort(selected, RANKING_ORDER);
+		assignRanks(selected);
+		for (ScoredCandidate scored : selected) {
+			scored.features = matrix.getRow(scored.row);
+		}
+		releaseFeatureMatrix(matrix);
+		return selected;
+	}
+
+	/**
+	 * Computes the feature values of the candidates into the matrix, their
+	 * probabilities, and the keys they are ranked by. The feature values of
+	 * the returned candidates are not set.
+	 */
+	private List<ScoredCandidate> computeScores(HashMap<String, Candidate> candidateList,
+			boolean training, GivenKeyphrases hashKeyphrases, FeatureMatrix matrix) {
+		return computeScores(candidateList, training, hashKeyphrases, matrix, null, 0);
+	}
+
+	/**
+	 * Computes the scores of the candidates, or, if there is a deadline, of
+	 * the most frequent ones that can be scored before it, and at least
+	 * minScored of them. The candidates keep their position in the table
+	 * as index, so that they are ranked as when all of them are scored.
+	 */
+	private List<ScoredCandidate> computeScores(HashMap<String, Candidate> candidateList,
+			boolean training, GivenKeyphrases hashKeyphrases, FeatureMatrix matrix,
+			Deadline deadline, int minScored) {
+
+		ArrayList<Candidate> candidates = new ArrayList<Candidate>(candidateList.size());
+		for (Candidate candidate : candidateList.values()) {
+			if (candidate.getFrequency() >= minOccurFrequency) {
+				candidates.add(candidate);
+			}
+		}
+
+		// positions of the candidates in the table, if they are reordered
+		int[] indices = null;
+		int numScored = candidates.size();
+		if (deadline != null) {
+			indices = getMostFrequentFirst(candidates);
+			ArrayList<Candidate> ordered = new ArrayList<Candidate>(candidates.size());
+			for (int index : indices) {
+				ordered.add(candidates.get(index));
+			}
+			candidates = ordered;
+			numScored = fillFeatureMatrix(candidates, training, hashKeyphrases, candidateList,
+					matrix, deadline, minScored);
+		} else {
+			fillFeatureMatrix(candidates, training, hashKeyphrases, candidateList, matrix);
+		}
+		double[] probabilities = new double[numScored];
+		boolean[] failed = new boolean[numScored];
+		if (training || preFilter == null || preFilterRecall <= 0) {
+			scoreFeatureMatrix(matrix, probabilities, failed);
+		} else {
+			scorePreFiltered(matrix, probabilities, failed);
+		}
+
+		ArrayList<ScoredCandidate> scoredCandidates = new ArrayList<ScoredCandidate>(numScored);
+		for (int row = 0; row < numScored; row++) {
+			if (failed[row]) {
+				log.error("Exception while getting probability for candidate " + candidates.get(row).getName());
+				continue;
+			}
+			int index = indices == null ? scoredCandidates.size() : indices[row];
+			scoredCandidates.add(new ScoredCandidate(candidates.get(row), row,
+					probabilities[row], index));
+		}
+
+		// The candidates used to be sorted with Utils.stableSort by TFxIDF,
+		// then by IDF, then by probability. Values that are equal within
+		// Utils.SMALL are grouped, so the groups are ranked instead of the
+		// values, which gives the same order.
+		double[] vals = new double[scoredCandidates.size()];
+		for (int i = 0; i < vals.length; i++) {
+			vals[i] = matrix.get(scoredCandidates.get(i).row, tfidfIndex);
+		}
+		int[] groups = getStableSortGroups(vals);
+		for (int i = 0; i < vals.length; i++) {
+			scoredCandidates.get(i).tfidfGroup = groups[i];
+		}
+
+		for (int i = 0; i < vals.length; i++) {
+			vals[i] = -matrix.get(scoredCandidates.get(i).row, idfIndex);
+		}
+		groups = getStableSortGroups(vals);
+		for (int i = 0; i < vals.length; i++) {
+			scoredCandidates.get(i).idfGroup = groups[i];
+		}
+
+		for (int i = 0; i < vals.length; i++) {
+			vals[i] = 1 - scoredCandidates.get(i).probability;
+		}
+		groups = getStableSortGroups(vals);
+		for (int i = 0; i < vals.length; i++) {
+			scoredCandidates.get(i).probabilityGroup = groups[i];
+		}
+
+		return scoredCandidates;
+	}
+
+	/**
+	 * Returns for each value the number of its group, as formed by
+	 * Utils.stableSort: the sorted values are split into groups, each
+	 * containing the values that are equal to its smallest value within
+	 * Utils.SMALL. Missing values are sorted last.
+	 */
+	private static int[] getStableSortGroups(double[] values) {
+		double[] sorted = new double[values.length];
+		for (int i = 0; i < values.length; i++) {
+			sorted[i] = Double.isNaN(values[i]) ? Double.MAX_VALUE : values[i];
+		}
+		Arrays.sort(sorted);
+
+		// group number of each sorted value
+		int[] sortedGroups = new int[sorted.length];
+		int group = 0;
+		int first = 0;
+		for (int i = 1; i < sorted.length; i++) {
+			if (!Utils.eq(sorted[first], sorted[i])) {
+				group++;
+				first = i;
+			}
+			sortedGroups[i] = group;
+		}
+
+		int[] groups = new int[values.length];
+		for (int i = 0; i < values.length; i++) {
+			double value = Double.isNaN(values[i]) ? Double.MAX_VALUE : values[i];
+			groups[i] = sortedGroups[Arrays.binarySearch(sorted, value)];
+		}
+		return groups;
+	}
+
+	/**
+	 * Numbers the ranked candidates, starting with 1. Very unlikely
+	 * candidates get rank Integer.MAX_VALUE.
+	 */
+	private static void assignRanks(List<ScoredCandidate> rankedCandidates) {
+		int rank = 1;
+		for (ScoredCandidate scored : rankedCandidates) {
+			if (Utils.grOrEq(1 - scored.probability, 1.0)) {
+				scored.rank = Integer.MAX_VALUE;
+			} else {
+				scored.rank = rank++;
+			}
+		}
+	}
+
+	/**
+	 * Orders candidates by probability and IDF (descending), then by TFxIDF
+	 * (ascending), then by the order in which they were scored.
+	 */
+	private static final Comparator<ScoredCandidate> RANKING_ORDER = new Comparator<ScoredCandidate>() {
+		public int compare(ScoredCandidate a, ScoredCandidate b) {
+			if (a.probabilityGroup != b.probabilityGroup) {
+				return a.probabilityGroup < b.probabilityGroup ? -1 : 1;
+			}
+			if (a.idfGroup != b.idfGroup) {
+				return a.idfGroup < b.idfGroup ? -1 : 1;
+			}
+			if (a.tfidfGroup != b.tfidfGroup) {
+				return a.tfidfGroup < b.tfidfGroup ? -1 : 1;
+			}
+			return a.index < b.index ? -1 : (a.index == b.index ? 0 : 1);
+		}
+	};
+
+	/**
+	 * A candidate with its feature values (and class value, last),
+	 * probability and rank.
+	 */
+	private static class ScoredCandidate {
+
+		final Candidate candidate;
+		double[] features;
+		final double probability;
+		int rank;
+
+		/** Row of the feature values in the feature matrix */
+		final int row;
+
+		/** Position in the scored candidates, and groups of equal values */
+		final int index;
+		int probabilityGroup;
+		int idfGroup;
+		int tfidfGroup;
+
+		ScoredCandidate(Candidate candidate, int row, double probability, int index) {
+			this.candidate = candidate;
+			this.row = row;
+			this.probability = probability;
+			this.index = index;
+		}
+	}
+
+	/**
+	 * Computes the feature values of the candidates of a document into the
+	 * matrix, one row per candidate in the order of the list, with the
+	 * class value in the last column. The model has to be built.
+	 *
+	 * @param candidates the candidates to compute the features of
+	 * @param candidateList all candidates of the document, as returned by
+	 * getCandidates()
+	 * @param matrix the matrix to fill, which is resized as needed
+	 */
+	public void computeFeatures(List<Candidate> candidates,
+			HashMap<String, Candidate> candidateList, FeatureMatrix matrix) {
+		fillFeatureMatrix(candidates, false, null, candidateList, matrix);
+	}
+
+	/**
+	 * Computes the probability of each row of a feature matrix filled by
+	 * computeFeatures() of being a topic. The probability is NaN for rows
+	 * that could not be classified.
+	 */
+	public double[] scoreFeatures(FeatureMatrix matrix) {
+		double[] probabilities = new double[matrix.numRows()];
+		boolean[] failed = new boolean[matrix.numRows()];
+		scoreFeatureMatrix(matrix, probabilities, failed);
+		for (int row = 0; row < failed.length; row++) {
+			if (failed[row]) {
+				probabilities[row] = Double.NaN;
+			}
+		}
+		return probabilities;
+	}
+
+	private void fillFeatureMatrix(List<Candidate> candidates, boolean training,
+			GivenKeyphrases hashKeyphrases,
+			HashMap<String, Candidate> candidateList, FeatureMatrix matrix) {
+		fillFeatureMatrix(candidates, training, hashKeyphrases, candidateList, matrix, null, 0);
+	}
+
+	/**
+	 * Fills the feature matrix with the first candidates whose features can
+	 * be computed before the deadline, if there is one, and at least
+	 * minRows of them. Returns the number of rows of the matrix.
+	 */
+	private int fillFeatureMatrix(List<Candidate> candidates, boolean training,
+			GivenKeyphrases hashKeyphrases,
+			HashMap<String, Candidate> candidateList, FeatureMatrix matrix,
+			Deadline deadline, int minRows) {
+		int numRows = candidates.size();
+		matrix.reset(numRows, numFeatures + 1);
+		FeatureLayout layout = getFeatureLayout();
+		FeatureContext context = new DocumentContext(candidateList, training, hashKeyphrases);
+
+		// the features are computed for blocks of candidates, so that the
+		// deadline can be checked between them
+		int blockSize = deadline == null ? Math.max(numRows, 1) : 32;
+		for (int from = 0; from < numRows; from += blockSize) {
+			if (deadline != null && from >= minRows && deadline.scoresExpired()) {
+				deadline.truncated = true;
+				matrix.truncate(from);
+				return from;
+			}
+			int to = Math.min(from + blockSize, numRows);
+			for (int column : layout.unusedColumns) {
+				matrix.fill(column, from, to, 0);
+			}
+			for (int k = 0; k < layout.extractors.length; k++) {
+				layout.extractors[k].extract(context, candidates, from, to, matrix, layout.columns[k]);
+			}
+			for (int row = from; row < to; row++) {
+				matrix.set(row, numFeatures, getClassValue(candidates.get(row), hashKeyphrases));
+			}
+		}
+		return numRows;
+	}
+
+	/**
+	 * The feature extractors that are used, from the cheapest to the most
+	 * expensive, with the columns of their features, and the columns of
+	 * the features that are not computed.
+	 */
+	private static class FeatureLayout {
+
+		FeatureExtractor[] extractors;
+		int[][] columns;
+		int[] unusedColumns;
+	}
+
+	/**
+	 * Returns the layout of the features, which is only looked up again
+	 * after the enabled features have changed.
+	 */
+	private FeatureLayout getFeatureLayout() {
+		FeatureLayout layout = featureLayout;
+		if (layout == null) {
+			layout = buildFeatureLayout();
+			featureLayout = layout;
+		}
+		return layout;
+	}
+
+	/**
+	 * Returns the extractors of the enabled features and of the added
+	 * ones, and where their features go in the classifier's data.
+	 */
+	private FeatureLayout buildFeatureLayout() {
+		ArrayList<FeatureExtractor> extractors = new ArrayList<FeatureExtractor>();
+		if (useFrequencyFeatures) {
+			extractors.add(new FeatureExtractors.Frequency());
+		}
+		if (useBasicFeatures) {
+			extractors.add(new FeatureExtractors.Basic());
+		}
+		if (usePositionsFeatures) {
+			extractors.add(new FeatureExtractors.Positions());
+		}
+		if (useKeyphrasenessFeature) {
+			extractors.add(new FeatureExtractors.Keyphraseness());
+		}
+		if (useLengthFeature) {
+			extractors.add(new FeatureExtractors.Length());
+		}
+		if (useThesaurusFeatures && vocabulary != null) {
+			extractors.add(new FeatureExtractors.Thesaurus());
+		}
+		if (useWikipediaFeatures) {
+			extractors.add(new FeatureExtractors.Wikipedia());
+		}
+		if (featureExtractors != null) {
+			extractors.addAll(featureExtractors);
+		}
+		// the sort is stable, so extractors of the same cost keep their order
+		Collections.sort(extractors, new Comparator<FeatureExtractor>() {
+			public int compare(FeatureExtractor a, FeatureExtractor b) {
+				return Integer.compare(a.getCost(), b.getCost());
+			}
+		});
+
+		FeatureLayout layout = new FeatureLayout();
+		layout.extractors = extractors.toArray(new FeatureExtractor[extractors.size()]);
+		layout.columns = new int[extractors.size()][];
+		boolean[] used = new boolean[numFeatures];
+		for (int k = 0; k < extractors.size(); k++) {
+			String[] names = extractors.get(k).getFeatureNames();
+			layout.columns[k] = new int[names.length];
+			for (int j = 0; j < names.length; j++) {
+				int column = classifierData.attribute(names[j]).index();
+				layout.columns[k][j] = column;
+				used[column] = true;
+			}
+		}
+		int numUnused = 0;
+		for (boolean isUsed : used) {
+			if (!isUsed) {
+				numUnused++;
+			}
+		}
+		layout.unusedColumns = new int[numUnused];
+		for (int column = 0, k = 0; column < numFeatures; column++) {
+			if (!used[column]) {
+				layout.unusedColumns[k++] = column;
+			}
+		}
+		return layout;
+	}
+
+	/**
+	 * The context of the feature extractors for a document.
+	 */
+	private class DocumentContext extends FeatureContext {
+
+		DocumentContext(HashMap<String, Candidate> candidates, boolean training,
+				GivenKeyphrases givenKeyphrases) {
+			super(candidates, training, givenKeyphrases);
+		}
+
+		public int getDocumentFrequency(String name) {
+			return globalFrequencies.get(name);
+		}
+
+		public int getNumDocuments() {
+			return numDocs;
+		}
+
+		public int getKeyphraseFrequency(String keyphraseName) {
+			return keyphraseFrequencies.get(keyphraseName);
+		}
+
+		public String getKeyphraseName(Candidate candidate) {
+			return indexingMode.getKeyphraseName(candidate);
+		}
+
+		public String getForm(Candidate candidate) {
+			return indexingMode.getForm(candidate);
+		}
+
+		public Vocabulary getVocabulary() {
+			return vocabulary;
+		}
+
+		public WikiFeatures getWikiFeatures() {
+			return wikiFeatures;
+		}
+	}
+
+	/**
+	 * Returns the positions of the candidates from the most to the least
+	 * frequent, in the order of the list for equal frequencies.
+	 */
+	private static int[] getMostFrequentFirst(final List<Candidate> candidates) {
+		Integer[] order = new Integer[candidates.size()];
+		for (int i = 0; i < order.length; i++) {
+			order[i] = i;
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				return Double.compare(candidates.get(b).getFrequency(), candidates.get(a).getFrequency());
+			}
+		});
+		int[] indices = new int[order.length];
+		for (int i = 0; i < order.length; i++) {
+			indices[i] = order[i];
+		}
+		return indices;
+	}
+
+	/**
+	 * The time by which an extraction has to finish. Candidates are
+	 * collected during the first two thirds of it, and scored until the end.
+	 * The calling thread is checked for interruption.
+	 */
+	private static class Deadline {
+
+		final long candidatesEnd;
+		final long scoresEnd;
+		final Thread caller = Thread.currentThread();
+
+		/** Set when part of the work is left out */
+		volatile boolean truncated = false;
+
+		Deadline(long timeoutNanos) {
+			long now = System.nanoTime();
+			this.candidatesEnd = now + timeoutNanos / 3 * 2;
+			this.scoresEnd = now + timeoutNanos;
+		}
+
+		boolean candidatesExpired() {
+			return caller.isInterrupted() || System.nanoTime() - candidatesEnd >= 0;
+		}
+
+		boolean scoresExpired() {
+			return caller.isInterrupted() || System.nanoTime() - scoresEnd >= 0;
+		}
+	}
+
+	/**
+	 * Computes the probabilities of all rows of the matrix, with the
+	 * compiled classifier where possible. Rows for which the classifier
+	 * fails are marked as failed.
+	 */
+	private void scoreFeatureMatrix(FeatureMatrix matrix, double[] probabilities, boolean[] failed) {
+		int numRows = matrix.numRows();
+		int probIndex = nominalClassValue ? 1 : 0;
+
+		double[] distributions = null;
+		int numClasses = 0;
+		if (compiledClassifier != null) {
+			numClasses = compiledClassifier.numClasses();
+			distributions = new double[numRows * numClasses];
+			compiledClassifier.distributionsForMatrix(matrix, distributions);
+		}
+
+		for (int row = 0; row < numRows; row++) {
+			if (distributions != null && !Double.isNaN(distributions[row * numClasses])) {
+				probabilities[row] = distributions[row * numClasses + probIndex];
+				continue;
+			}
+			try {
+				// Get probability of a phrase being key phrase
+				Instance inst = new Instance(1.0, matrix.getRow(row));
+				inst.setDataset(classifierData);
+				probabilities[row] = classifier.distributionForInstance(inst)[probIndex];
+			} catch (Exception e) {
+				failed[row] = true;
+			}
+		}
+	}
+
+	/**
+	 * Computes the probabilities of the rows of the matrix that pass the
+	 * pre-filter with the classifier. The other rows get probability 0.
+	 */
+	private void scorePreFiltered(FeatureMatrix matrix, double[] probabilities, boolean[] failed) {
+		PreFilter filter = preFilter;
+		double threshold = filter.getThreshold(preFilterRecall);
+		int numRows = matrix.numRows();
+		PreFilterBuffers buffers = getPreFilterBuffers(numRows);
+		int[] kept = buffers.kept;
+		int numKept = 0;
+		for (int row = 0; row < numRows; row++) {
+			if (filter.score(matrix, row) >= threshold) {
+				kept[numKept++] = row;
+			}
+		}
+		preFilteredCandidates.addAndGet(numRows);
+		prunedCandidates.addAndGet(numRows - numKept);
+		if (debugMode) {
+			log.info("---- Pre-filter removed " + (numRows - numKept) + " of " + numRows + " candidates");
+		}
+
+		FeatureMatrix keptMatrix = buffers.matrix;
+		keptMatrix.selectRows(matrix, kept, numKept);
+		double[] keptProbabilities = buffers.probabilities;
+		boolean[] keptFailed = buffers.failed;
+		Arrays.fill(keptFailed, 0, numKept, false);
+		scoreFeatureMatrix(keptMatrix, keptProbabilities, keptFailed);
+		for (int k = 0; k < numKept; k++) {
+			probabilities[kept[k]] = keptProbabilities[k];
+			failed[kept[k]] = keptFailed[k];
+		}
+		releasePreFilterBuffers(buffers);
+	}
+
+	/**
+	 * The matrix of the rows kept by the pre-filter, with their rows in the
+	 * full matrix and their probabilities.
+	 */
+	private static class PreFilterBuffers {
+
+		/** Buffers that have held more rows than this are not kept */
+		static final int MAX_RETAINED_ROWS = 1 << 16;
+
+		final FeatureMatrix matrix = new FeatureMatrix();
+		int[] kept = new int[0];
+		double[] probabilities = new double[0];
+		boolean[] failed = new boolean[0];
+
+		/**
+		 * Returns true if the buffers are small enough to be kept for the
+		 * next document.
+		 */
+		boolean isRetainable() {
+			return kept.length <= MAX_RETAINED_ROWS && matrix.isRetainable();
+		}
+	}
+
+	/**
+	 * Returns the pre-filter buffers of the current thread, with room for
+	 * the given number of rows.
+	 */
+	private PreFilterBuffers getPreFilterBuffers(int numRows) {
+		PreFilterBuffers buffers = preFilterBuffers.get();
+		if (buffers == null) {
+			buffers = new PreFilterBuffers();
+			preFilterBuffers.set(buffers);
+		}
+		if (buffers.kept.length < numRows) {
+			int capacity = Math.max(numRows, buffers.kept.length * 2);
+			buffers.kept = new int[capacity];
+			buffers.probabilities = new double[capacity];
+			buffers.failed = new boolean[capacity];
+		}
+		return buffers;
+	}
+
+	/**
+	 * Drops the pre-filter buffers of the current thread if they have grown
+	 * too large, so that one very long document does not keep their space.
+	 */
+	private void releasePreFilterBuffers(PreFilterBuffers buffers) {
+		if (!buffers.isRetainable() && preFilterBuffers.get() == buffers) {
+			preFilterBuffers.remove();
+		}
+	}
+
+	/**
+	 * Returns the feature matrix of the current thread.
+	 */
+	private FeatureMatrix getFeatureMatrix() {
+		FeatureMatrix matrix = featureMatrices.get();
+		if (matrix == null) {
+			matrix = new FeatureMatrix();
+			featureMatrices.set(matrix);
+		}
+		return matrix;
+	}
+
+	/**
+	 * Drops the feature matrix of the current thread after a document if
+	 * it has grown too large, as releaseCandidateArena() does with arenas.
+	 */
+	private void releaseFeatureMatrix(FeatureMatrix matrix) {
+		if (!matrix.isRetainable() && featureMatrices.get() == matrix) {
+			featureMatrices.remove();
+		}
+	}
+
+	/**
+	 * Expects an empty hashtable. Fills the hashtable with the candidate
+	 * keyphrases Stores the position, the number of occurences, and the most
+	 * commonly occurring orgininal version of each candidate in the Candidate
+	 * object.
+	 * <br>
+	 * The text is the original document text. It is split into phrases the
+	 * same way as by MauiPhraseFilter, in the same pass that generates the
+	 * candidates.
+	 *
+	 * Returns the total number of words in the document.
+	 *
+	 * @throws Exception
+	 */
+	public HashMap<String, Candidate> getCandidates(CharSequence text) {
+		return getCandidates(text, null);
+	}
+
+	/**
+	 * Collects the candidates of a text, and stops reading it when the
+	 * time for collecting candidates is up, if there is a deadline.
+	 */
+	private HashMap<String, Candidate> getCandidates(CharSequence text, Deadline deadline) {
+
+		// a streamed text only keeps the characters that are still needed
+		StreamingText stream = text instanceof StreamingText ? (StreamingText) text : null;
+
+		if (debugMode) {
+			log.info("---- Extracting candidates... ");
+		}
+
+		DocumentCandidates document;
+		if (stream == null && candidateSegmentLength > 0 && maxCandidates == 0 && preparedForConcurrency
+				&& text.length() >= 2 * candidateSegmentLength) {
+			document = collectCandidatesInParallel(text, deadline);
+		} else {
+			document = collectCandidates(text, stream, false, deadline);
+		}
+		HashMap<String, Candidate> candidatesTable = document.candidates;
+		int totalFrequency = document.totalFrequency;
+		int pos = document.numWords;
+
+		Set<String> keys = new HashSet<String>();
+		keys.addAll(candidatesTable.keySet());
+		for (String key : keys) {
+			Candidate candidate = candidatesTable.get(key);
+			if (candidate.getFrequency() < minOccurFrequency) {
+				candidatesTable.remove(key);
+			} else {
+				candidate.normalize(totalFrequency, pos);
+			}
+		}
+
+		return candidatesTable;
+	}
+
+	/**
+	 * Returns the indexing mode for the current vocabulary name.
+	 */
+	private IndexingMode createIndexingMode() {
+		if (vocabularyName.equals("none")) {
+			return new FreeIndexing();
+		}
+		return new TermAssignment();
+	}
+
+	/**
+	 * How candidates are found and named, which differs between free
+	 * keyphrase indexing and term assignment with a vocabulary. The mode is
+	 * chosen when the vocabulary name is set, so that the loops over n-grams
+	 * and candidates do not have to check it.
+	 */
+	private abstract class IndexingMode {
+
+		/**
+		 * Returns how much the total frequency grows with each n-gram,
+		 * besides one for each of its candidates.
+		 */
+		abstract int getNgramFrequency();
 
-				pos++;
+		/**
+		 * Returns the windows of words that are followed in the vocabulary's
+		 * matcher, or null if all n-grams are looked up.
+		 */
+		abstract VocabularyMatcher.Window[] newWindows(int maxPhraseLength);
 
-				String word = wordTok.nextToken();
+		/**
+		 * Adds the names of the candidates of an n-gram to those of the
+		 * arena. If documentLexicon is null, the pseudo phrases of the
+		 * document are not kept, and the ids of the words are not needed.
+		 */
+		abstract void addCandidateNames(String form, Lexicon documentLexicon, int[] ngram,
+				int numWords, CandidateArena arena);
 
-				// Store word in buffer
-				for (int i = 0; i < maxPhraseLength - 1; i++) {
-					buffer[i] = buffer[i + 1];
-				}
-				buffer[maxPhraseLength - 1] = word;
+		/**
+		 * Sets the title of a new candidate.
+		 */
+		abstract void setTitle(Candidate candidate);
+
+		/**
+		 * Returns the name by which the candidate is found in the keyphrase
+		 * frequencies and among the manually assigned topics.
+		 */
+		abstract String getKeyphraseName(Candidate candidate);
+
+		/**
+		 * Returns how the candidate is shown, which may be null.
+		 */
+		abstract String getForm(Candidate candidate);
+
+		/**
+		 * Returns the id of the topic of a candidate.
+		 */
+		abstract String getId(Candidate candidate);
+
+		/**
+		 * Adds a manually assigned topic to the given ones.
+		 */
+		abstract void addGivenKeyphrase(String keyphrase, int frequency,
+				HashMap<String, Counter> keyphrases);
+
+		/**
+		 * Prepares the structures of the mode for concurrent extraction.
+		 */
+		abstract void prepareForConcurrency() throws MauiFilterException;
+
+		void addCount(HashMap<String, Counter> keyphrases, String keyphrase, int frequency) {
+			Counter counter = keyphrases.get(keyphrase);
+			if (counter == null) {
+				keyphrases.put(keyphrase, new Counter(frequency));
+			} else {
+				counter.increment(frequency);
+			}
+		}
+	}
+
+	/**
+	 * Free keyphrase indexing: the candidates are the pseudo phrases of
+	 * the n-grams.
+	 */
+	private final class FreeIndexing extends IndexingMode {
+
+		int getNgramFrequency() {
+			return 1;
+		}
+
+		VocabularyMatcher.Window[] newWindows(int maxPhraseLength) {
+			return null;
+		}
+
+		void addCandidateNames(String form, Lexicon documentLexicon, int[] ngram,
+				int numWords, CandidateArena arena) {
+			// get the pseudo phrase of the original spelling
+			String phrase;
+			if (documentLexicon != null) {
+				phrase = pseudoPhrase(documentLexicon, ngram, numWords, form, arena);
+			} else {
+				phrase = pseudoPhrase(form);
+			}
+			if (phrase != null) {
+				arena.candidateNames.add(phrase);
+			}
+		}
+
+		void setTitle(Candidate candidate) {
+		}
+
+		String getKeyphraseName(Candidate candidate) {
+			return candidate.getName();
+		}
+
+		String getForm(Candidate candidate) {
+			return candidate.getBestFullForm();
+		}
+
+		String getId(Candidate candidate) {
+			return "";
+		}
+
+		void addGivenKeyphrase(String keyphrase, int frequency,
+				HashMap<String, Counter> keyphrases) {
+			addCount(keyphrases, pseudoPhrase(keyphrase), frequency);
+		}
+
+		void prepareForConcurrency() {
+		}
+	}
+
+	/**
+	 * Term assignment: the candidates are the terms of the vocabulary
+	 * that the n-grams refer to.
+	 */
+	private final class TermAssignment extends IndexingMode {
+
+		int getNgramFrequency() {
+			return 0;
+		}
+
+		VocabularyMatcher.Window[] newWindows(int maxPhraseLength) {
+			if (vocabulary.getMatcher() == null) {
+				return null;
+			}
+			VocabularyMatcher.Window[] windows = new VocabularyMatcher.Window[maxPhraseLength];
+			for (int k = 0; k < maxPhraseLength; k++) {
+				windows[k] = vocabulary.getMatcher().newWindow();
+			}
+			return windows;
+		}
+
+		void addCandidateNames(String form, Lexicon documentLexicon, int[] ngram,
+				int numWords, CandidateArena arena) {
+			// retrieve the senses of the original spelling
+			for (String sense : vocabulary.getSenses(form)) {
+				// mapping
+				log.debug(form + " => " + vocabulary.getTerm(sense) + " " + minOccurFrequency);
+				arena.candidateNames.add(sense);
+			}
+		}
+
+		void setTitle(Candidate candidate) {
+			// how this topic is referred to by a descriptor
+			candidate.setTitle(vocabulary.getTerm(candidate.getName()));
+		}
+
+		String getKeyphraseName(Candidate candidate) {
+			return candidate.getTitle();
+		}
+
+		String getForm(Candidate candidate) {
+			return candidate.getTitle();
+		}
+
+		String getId(Candidate candidate) {
+			if (vocabulary == null) {
+				return "";
+			}
+			return vocabulary.getFormatedName(candidate.getName());
+		}
+
+		void addGivenKeyphrase(String keyphrase, int frequency,
+				HashMap<String, Counter> keyphrases) {
+			int colonIndex = keyphrase.indexOf(":");
+			if (colonIndex != -1) {
+				keyphrase = keyphrase.substring(colonIndex + 2);
+			}
+			for (String id : vocabulary.getSenses(keyphrase)) {
+				addCount(keyphrases, vocabulary.getTerm(id), frequency);
+			}
+		}
+
+		void prepareForConcurrency() throws MauiFilterException {
+			if (vocabulary == null) {
+				throw new MauiFilterException("The vocabulary has not been set");
+			}
+			if (!(vocabulary.getStemmer() instanceof CachingStemmer)
+					&& vocabulary.getStemmer() != null) {
+				vocabulary.setStemmer(new CachingStemmer(vocabulary.getStemmer()));
+			}
+			vocabulary.getMatcher();
+		}
+	}
+
+	/**
+	 * The candidates collected from a text, or from a part of it.
+	 */
+	private static class DocumentCandidates {
+
+		HashMap<String, Candidate> candidates;
+
+		/** The candidates in the order in which they were seen, or null */
+		ArrayList<Candidate> firstSeen;
+
+		int numWords;
+		int totalFrequency;
+	}
+
+	/**
+	 * Collects the candidates of a text, with positions counted from its
+	 * start. They are neither filtered nor normalized.
+	 *
+	 * @param text the text
+	 * @param stream the text if it is streamed, or null
+	 * @param recordOrder whether to record the order in which the
+	 * candidates are seen
+	 * @param deadline the deadline of the extraction, or null
+	 */
+	private DocumentCandidates collectCandidates(CharSequence text, StreamingText stream,
+			boolean recordOrder, Deadline deadline) {
+		CandidateArena arena = acquireCandidateArena();
+		try {
+			return collectCandidates(text, stream, recordOrder, deadline, arena);
+		} finally {
+			releaseCandidateArena(arena);
+		}
+	}
+
+	/**
+	 * Returns the arena of the current thread, or a new one if it is
+	 * already in use further up the stack.
+	 */
+	private CandidateArena acquireCandidateArena() {
+		CandidateArena arena = candidateArenas.get();
+		if (arena == null) {
+			arena = new CandidateArena();
+			candidateArenas.set(arena);
+		} else if (arena.inUse) {
+			arena = new CandidateArena();
+		}
+		arena.inUse = true;
+		return arena;
+	}
+
+	/**
+	 * Clears an arena after a document. Arenas that have grown too large
+	 * are dropped, so that one very long document does not keep its space.
+	 */
+	private void releaseCandidateArena(CandidateArena arena) {
+		boolean retain = arena.isRetainable();
+		arena.clear();
+		if (!retain && candidateArenas.get() == arena) {
+			candidateArenas.remove();
+		}
+	}
+
+	private DocumentCandidates collectCandidates(CharSequence text, StreamingText stream,
+			boolean recordOrder, Deadline deadline, CandidateArena arena) {
+
+		HashMap<String, Candidate> candidatesTable = new HashMap<String, Candidate>();
+		ArrayList<Candidate> firstSeen = recordOrder ? new ArrayList<Candidate>() : null;
+
+		// If the number of candidates is limited, the tables of n-grams and
+		// pseudo phrases below are not used either, nor are the words added
+		// to the document's lexicon, as they grow with the number of
+		// distinct n-grams and words
+		BoundedCandidateTable boundedTable = null;
+		if (maxCandidates > 0) {
+			boundedTable = new BoundedCandidateTable(maxCandidates);
+		}
 
-				// How many are buffered?
+		IndexingMode mode = indexingMode;
+		int ngramFrequency = mode.getNgramFrequency();
+
+		// Ids of the words in this document
+		Lexicon documentLexicon = getDocumentLexicon(arena);
+
+		// Ring buffer with the last maxPhraseLength words of the current
+		// phrase. Words are kept as offsets into the text, so that
+		// n-grams are not copied unless they pass the stopword checks
+		arena.begin(maxPhraseLength);
+		int[] wordStart = arena.wordStart;
+		int[] wordEnd = arena.wordEnd;
+		int[] wordIds = arena.wordIds;
+		String[] words = arena.words;
+		boolean[] isStopword = arena.isStopword;
+		int last = -1;
+
+		// The n-grams seen in this document, keyed by their word ids,
+		// with their full forms and the candidates they were mapped to,
+		// are kept in the arena, as are the pseudo phrases
+		PhraseTable ngrams = arena.ngrams;
+		ArrayList<String> ngramForms = arena.ngramForms;
+		int[] ngram = arena.ngram;
+
+		// Windows of words starting at each buffered word, followed in the
+		// vocabulary's matcher, so that only those that can be terms
+		// are looked up in the vocabulary
+		VocabularyMatcher.Window[] windows = mode.newWindows(maxPhraseLength);
+
+		// Extracting strings of a predefined length from text.
+		// Words and phrase boundaries are found in a single pass
+		// over the original text, see PhraseTokenizer
+		PhraseTokenizer tokenizer = new PhraseTokenizer(text, false);
+		int pos = 0;
+		int totalFrequency = 0;
+		int firstWord = 0;
+		int numSeen = 0;
+		while (tokenizer.next()) {
+
+			// the rest of the text is skipped when the time is up
+			if (deadline != null && (pos & 63) == 0 && deadline.candidatesExpired()) {
+				deadline.truncated = true;
+				break;
+			}
+
+			// phrases are separated by punctuation, numbers and empty lines
+			if (tokenizer.startsPhrase()) {
+				numSeen = 0;
+			}
+
+			pos++;
+
+			// Store word in buffer. Words joined from several pieces
+			// are not part of the text, and have no offsets
+			CharSequence wordText = tokenizer.getText();
+			last = (last + 1) % maxPhraseLength;
+			wordStart[last] = wordText == text ? tokenizer.getStart() : -1;
+			wordEnd[last] = wordText == text ? tokenizer.getEnd() : -1;
+			if (boundedTable == null) {
+				wordIds[last] = documentLexicon.getId(wordText, tokenizer.getStart(), tokenizer.getEnd());
+				words[last] = documentLexicon.getWord(wordIds[last]);
+			} else {
+				// the word ids are not used with a bounded table, and the
+				// lexicon would grow with the distinct words of the text
+				words[last] = tokenizer.getWord();
+			}
+			isStopword[last] = stopwords.isStopword(words[last]);
+
+			// How many are buffered?
+			if (numSeen < maxPhraseLength) {
 				numSeen++;
-				if (numSeen > maxPhraseLength) {
-					numSeen = maxPhraseLength;
+			}
+
+			// Only the buffered words and what the tokenizer has not
+			// scanned yet are read from a streamed text
+			if (stream != null) {
+				int neededFrom = tokenizer.getNeededFrom();
+				for (int i = 1; i <= numSeen; i++) {
+					int start = wordStart[(last - i + 1 + maxPhraseLength) % maxPhraseLength];
+					if (start != -1 && start < neededFrom) {
+						neededFrom = start;
+					}
+				}
+				stream.discardBefore(neededFrom);
+			}
+
+			// Extend the windows that end with this word
+			if (windows != null) {
+				VocabularyMatcher.Word matcherWord = vocabulary.getMatcherWord(words[last]);
+				windows[last].clear();
+				for (int i = 1; i <= numSeen; i++) {
+					windows[(last - i + 1 + maxPhraseLength) % maxPhraseLength].add(matcherWord);
 				}
+			}
+
+			// Don't consider phrases that end with a stop word
+			if (isStopword[last]) {
+				continue;
+			}
+
+			// Loop through buffer and add phrases to hashtable
+			for (int i = 1; i <= numSeen; i++) {
 
-				// Don't consider phrases that end with a stop word
-				if (stopwords.isStopword(buffer[maxPhraseLength - 1])) {
+				int first = (last - i + 1 + maxPhraseLength) % maxPhraseLength;
+
+				// Don't consider phrases that begin with a stop word
+				// In free indexing only
+				if ((i > 1) && isStopword[first]) {
 					continue;
 				}
 
-				// Loop through buffer and add phrases to hashtable
-				StringBuffer phraseBuffer = new StringBuffer();
-				for (int i = 1; i <= numSeen; i++) {
-					if (i > 1) {
-						phraseBuffer.insert(0, ' ');
+				// Only consider phrases with minimum length
+				if (i >= minPhraseLength) {
+
+					// Don't look up phrases that are not in the vocabulary
+					if (windows != null && !windows[first].mayMatch()) {
+						continue;
 					}
-					phraseBuffer.insert(0, buffer[maxPhraseLength - i]);
 
-					// Don't consider phrases that begin with a stop word
-					// In free indexing only
-					if ((i > 1)
-							&& (stopwords.isStopword(buffer[maxPhraseLength - i]))) {
+					firstWord = pos - i;
+
+					int index = -1;
+					if (boundedTable == null) {
+						for (int k = 0; k < i; k++) {
+							ngram[k] = wordIds[(first + k) % maxPhraseLength];
+						}
+						index = ngrams.get(ngram, i);
+					}
+					if (index != -1) {
+
+						// this n-gram has been seen before, and has been
+						// mapped to candidates already
+						totalFrequency += ngramFrequency;
+						String form = ngramForms.get(index);
+						int end = arena.getNgramCandidatesEnd(index);
+						for (int k = arena.getNgramCandidatesStart(index); k < end; k++) {
+							arena.getNgramCandidate(k).recordOccurrence(form, firstWord);
+							totalFrequency++;
+						}
 						continue;
 					}
 
-					// Only consider phrases with minimum length
-					if (i >= minPhraseLength) {
+					// each detected candidate phase in its original
+					// spelling form
+					String form = getPhrase(text, wordStart, wordEnd, words, first, i);
+
+					// list of candidates extracted for a given original
+					// string
+					// in case of term assignment more than one possible!
+					ArrayList<String> candidateNames = arena.candidateNames;
+					candidateNames.clear();
+					if (boundedTable == null) {
+						mode.addCandidateNames(form, documentLexicon, ngram, i, arena);
+					} else {
+						mode.addCandidateNames(form, null, null, i, arena);
+					}
+					totalFrequency += ngramFrequency;
 
-						// each detected candidate phase in its original
-						// spelling form
-						String form = phraseBuffer.toString();
+					// log.info("...conflating candidates");
 
-						// list of candidates extracted for a given original
-						// string
-						// in case of term assignment more than one possible!
-						ArrayList<String> candidateNames = new ArrayList<String>();
+					// ignore all those phrases
+					// that have empty pseudo phrases or
+					// that map to nothing in the vocabulary
+					for (int k = 0; k < candidateNames.size(); k++) {
 
-						if (vocabularyName.equals("none")) {
+						String name = candidateNames.get(k);
+						Candidate candidate;
 
-							// if it is free keyphrase indexing,
-							// get the pseudo phrase of the original spelling
-							String phrase = pseudoPhrase(form);
-							if (phrase != null) {
-								candidateNames.add(phrase);
+						if (boundedTable != null) {
+							// the least frequent candidate may be replaced
+							candidate = boundedTable.recordOccurrence(name, form, firstWord);
+							totalFrequency++;
+							if (candidate.getTitle() == null) {
+								mode.setTitle(candidate);
 							}
+							continue;
+						}
+
+						candidate = candidatesTable.get(name);
+						if (candidate == null) {
+							// this is the first occurrence of this
+							// candidate
+							// create a candidate object
+							candidate = new Candidate(name, form,
+									firstWord);
 							totalFrequency++;
-							//	log.info(form + ", ");
+							// if it's a controlled vocabulary, this
+							// allows
+							// retrieve how this topic is refered to
+							// by a descriptor
+							mode.setTitle(candidate);
+							candidatesTable.put(name, candidate);
+							if (firstSeen != null) {
+								firstSeen.add(candidate);
+							}
 
 						} else {
-							//	log.info("...retrieving senses for form " + form);
-							// if a controlled vocabulary is used
-							// retrieve its senses
-							for (String sense : vocabulary.getSenses(form)) {
-								// mapping
-								log.debug(form + " => " + vocabulary.getTerm(sense)+" " + this.minOccurFrequency);
-								candidateNames.add(sense);
-							}
+
+							// candidate has been observed before
+							// update its values
+							// log.info(form);
+							candidate.recordOccurrence(form, firstWord);
+							totalFrequency++;
 
 						}
+						arena.addNgramCandidate(candidate);
+					}
+
+					if (boundedTable == null) {
+						arena.addNgram(ngram, i, form);
+					}
+				}
+			}
+		}
 
-						// log.info("...conflating candidates");
+		if (boundedTable != null) {
+			candidatesTable = boundedTable.toHashMap();
+			if (debugMode) {
+				log.info("---- Replaced " + boundedTable.getEvictions() + " candidates");
+			}
+		}
 
-						// ignore all those phrases
-						// that have empty pseudo phrases or
-						// that map to nothing in the vocabulary
-						if (!candidateNames.isEmpty()) {
+		DocumentCandidates document = new DocumentCandidates();
+		document.candidates = candidatesTable;
+		document.firstSeen = firstSeen;
+		document.numWords = pos;
+		document.totalFrequency = totalFrequency;
+		return document;
+	}
 
-							for (String name : candidateNames) {
+	/**
+	 * Collects the candidates of a long text in parts on the common
+	 * fork-join pool, and merges them into the candidates that would be
+	 * collected in one pass: the same candidates, added to the table in the
+	 * same order, with the same positions, counts and full forms.
+	 */
+	private DocumentCandidates collectCandidatesInParallel(CharSequence text, final Deadline deadline) {
+		int[] boundaries = getSegmentBoundaries(text);
+		int numSegments = boundaries.length - 1;
+
+		List<ForkJoinTask<DocumentCandidates>> tasks = new ArrayList<ForkJoinTask<DocumentCandidates>>();
+		for (int k = 1; k < numSegments; k++) {
+			final CharSequence segment = text.subSequence(boundaries[k], boundaries[k + 1]);
+			tasks.add(ForkJoinPool.commonPool().submit(new Callable<DocumentCandidates>() {
+				public DocumentCandidates call() {
+					return collectCandidates(segment, null, true, deadline);
+				}
+			}));
+		}
 
-								Candidate candidate = candidatesTable.get(name);
+		// the first part is collected by this thread, and the others
+		// are added to it in the order of the text
+		DocumentCandidates document = collectCandidates(
+				text.subSequence(boundaries[0], boundaries[1]), null, false, deadline);
+		for (ForkJoinTask<DocumentCandidates> task : tasks) {
+			DocumentCandidates segment = task.join();
+			for (Candidate candidate : segment.firstSeen) {
+				candidate.shiftPositions(document.numWords);
+				Candidate previous = document.candidates.get(candidate.getName());
+				if (previous == null) {
+					document.candidates.put(candidate.getName(), candidate);
+				} else {
+					previous.appendOccurrences(candidate);
+				}
+			}
+			document.numWords += segment.numWords;
+			document.totalFrequency += segment.totalFrequency;
+		}
+		return document;
+	}
 
-								if (candidate == null) {
-									// this is the first occurrence of this
-									// candidate
-									// create a candidate object
+	/**
+	 * Returns the start of each part of the text, followed by its length.
+	 * The parts are about candidateSegmentLength characters long, and each
+	 * one starts after a punctuation mark that ends a phrase and before
+	 * white space, where PhraseTokenizer starts a new phrase, so that the
+	 * words and phrases of the parts are those of the whole text.
+	 */
+	private int[] getSegmentBoundaries(CharSequence text) {
+		int length = text.length();
+		ArrayList<Integer> starts = new ArrayList<Integer>();
+		starts.add(0);
+		int target = candidateSegmentLength;
+		while (target < length) {
+			int boundary = target;
+			while (boundary < length && !isSegmentBoundary(text, boundary)) {
+				boundary++;
+			}
+			if (boundary == length) {
+				break;
+			}
+			starts.add(boundary);
+			target = boundary + candidateSegmentLength;
+		}
+		int[] boundaries = new int[starts.size() + 1];
+		for (int k = 0; k < starts.size(); k++) {
+			boundaries[k] = starts.get(k);
+		}
+		boundaries[starts.size()] = length;
+		return boundaries;
+	}
 
+	private static boolean isSegmentBoundary(CharSequence text, int position) {
+		char previous = text.charAt(position - 1);
+		return !Character.isLetterOrDigit(previous) && !Character.isWhitespace(previous)
+				&& previous != '-' && previous != '/'
+				&& Character.isWhitespace(text.charAt(position));
+	}
 
-									firstWord = pos - i;
-									candidate = new Candidate(name, form,
-											firstWord);
-									totalFrequency++;
-									// if it's a controlled vocabulary, this
-									// allows
-									// retrieve how this topic is refered to
-									// by a descriptor
-									if (!vocabularyName.equals("none")) {
-										candidate.setTitle(vocabulary.getTerm(name));
-									}
+	/**
+	 * Collects the candidates of a text that is read from a reader, as
+	 * getCandidates(text) does. The text is read in blocks, and only the
+	 * last words are kept, so that the memory used depends on the number of
+	 * distinct words and candidates rather than on the length of the text.
+	 * The positions of the candidates are counted in words as they are read.
+	 *
+	 * @param reader the text, which is read to the end but not closed
+	 * @throws IOException if the text cannot be read
+	 */
+	public HashMap<String, Candidate> getCandidates(Reader reader) throws IOException {
+		try {
+			return getCandidates(new StreamingText(reader));
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+	}
 
+	/**
+	 * Returns the lexicon for the next document: the model's lexicon while
+	 * it is being built, and an extension of it once it has been frozen,
+	 * which is reused from the given arena if there is one. A new lexicon
+	 * is started if the stemmer has been changed.
+	 */
+	private Lexicon getDocumentLexicon(CandidateArena arena) {
+		Lexicon modelLexicon = lexicon;
+		if (modelLexicon == null
+				|| !CachingStemmer.isSameStemmer(modelLexicon.getStemmer(), stemmer)) {
+			modelLexicon = new Lexicon(stemmer);
+			if (globalFrequencies != null) {
+				modelLexicon.freeze();
+			}
+			lexicon = modelLexicon;
+		}
+		if (modelLexicon.isFrozen()) {
+			if (arena != null) {
+				return arena.getLexicon(modelLexicon, stemmer);
+			}
+			return modelLexicon.extend(stemmer);
+		}
+		return modelLexicon;
+	}
 
+	/**
+	 * Returns the pseudo phrase of an n-gram, given the ids of its words.
+	 * Gives the same result as pseudoPhrase(form), but the stemmed and sorted
+	 * words are looked up by their ids, so that the string is only created
+	 * the first time a pseudo phrase is seen in the document.
+	 */
+	private String pseudoPhrase(Lexicon documentLexicon, int[] ngram, int numWords,
+			String form, CandidateArena arena) {
+
+		// remove all stopwords and sort the remaining words alphabetically
+		int[] stems = arena.stems;
+		int numStems = 0;
+		for (int i = 0; i < numWords; i++) {
+			String word = documentLexicon.getLowerCaseWord(ngram[i]);
+			if (stopwords.isStopword(word)) {
+				continue;
+			}
+			int k = numStems++;
+			while (k > 0 && documentLexicon.getLowerCaseWord(stems[k - 1]).compareTo(word) > 0) {
+				stems[k] = stems[k - 1];
+				k--;
+			}
+			stems[k] = ngram[i];
+		}
+		if (numStems == 0) {
+			return null;
+		}
 
-								} else {
+		for (int i = 0; i < numStems; i++) {
+			stems[i] = documentLexicon.getStemId(stems[i]);
+
+			// words are joined by spaces and the result is trimmed, so a
+			// stem that is empty or has white space is not identified
+			// by its id only
+			String stem = documentLexicon.getStem(stems[i]);
+			if (stem.length() == 0 || stem.charAt(0) <= ' '
+					|| stem.charAt(stem.length() - 1) <= ' '
+					|| stem.indexOf(' ') != -1) {
+				return pseudoPhrase(form);
+			}
+		}
 
-									// candidate has been observed before
-									// update its values
-									// log.info(form);
-									firstWord = pos - i;
-									candidate.recordOccurrence(form, firstWord);
-									totalFrequency++;
+		int index = arena.pseudoPhrases.get(stems, numStems);
+		if (index != -1) {
+			return arena.pseudoPhraseNames.get(index);
+		}
 
-								}
-								if (candidate != null) {
-									candidatesTable.put(name, candidate);
-								}
-							}
-						}
-					}
-				}
+		StringBuilder phrase = new StringBuilder();
+		for (int i = 0; i < numStems; i++) {
+			if (i > 0) {
+				phrase.append(' ');
 			}
+			phrase.append(documentLexicon.getStem(stems[i]));
 		}
+		String name = phrase.toString();
+		arena.pseudoPhrases.add(stems, numStems);
+		arena.pseudoPhraseNames.add(name);
+		return name;
+	}
 
-		Set<String> keys = new HashSet<String>();
-		keys.addAll(candidatesTable.keySet());
-		for (String key : keys) {
-			Candidate candidate = candidatesTable.get(key);
-			if (candidate.getFrequency() < minOccurFrequency) {
-				candidatesTable.remove(key);
-			} else {
-				candidate.normalize(totalFrequency, pos);
+	/**
+	 * Returns the phrase made of the given number of words in the ring
+	 * buffer, starting at position first. The words are joined by single
+	 * spaces. If this is how they appear in the text, the phrase is taken
+	 * from the text directly.
+	 */
+	private String getPhrase(CharSequence text, int[] wordStart, int[] wordEnd,
+			String[] words, int first, int numWords) {
+
+		int last = (first + numWords - 1) % words.length;
+		if (numWords == 1) {
+			return words[first];
+		}
+
+		int length = numWords - 1;
+		boolean isInText = true;
+		for (int i = 0; i < numWords; i++) {
+			int index = (first + i) % words.length;
+			length += words[index].length();
+			if (i > 0) {
+				int previous = (first + i - 1) % words.length;
+				isInText = isInText && wordEnd[previous] != -1
+						&& wordStart[index] == wordEnd[previous] + 1
+						&& text.charAt(wordEnd[previous]) == ' ';
 			}
 		}
+		if (isInText) {
+			return text.subSequence(wordStart[first], wordEnd[last]).toString();
+		}
 
-		return candidatesTable;
+		StringBuilder phrase = new StringBuilder(length);
+		for (int i = 0; i < numWords; i++) {
+			if (i > 0) {
+				phrase.append(' ');
+			}
+			phrase.append(words[(first + i) % words.length]);
+		}
+		return phrase.toString();
 	}
 
 
@@ -1408,7 +2918,7 @@ public class MauiFilter extends Filter {
 	 * Collects all the topics assigned manually and puts them into the
 	 * hashtable. Also stores the counts for each topic, if they are available
 	 */
-	private HashMap<String, Counter> getGivenKeyphrases(String keyphraseListings) {
+	private GivenKeyphrases getGivenKeyphrases(String keyphraseListings) {
 
 		HashMap<String, Counter> keyphrases = new HashMap<String, Counter>();
 
@@ -1432,30 +2942,7 @@ public class MauiFilter extends Filter {
 				frequency = 1;
 			}
 
-			if (vocabularyName.equals("none")) {
-
-				keyphrase = pseudoPhrase(keyphrase);
-				Counter counter = keyphrases.get(keyphrase);
-				if (counter == null) {
-					keyphrases.put(keyphrase, new Counter(frequency));
-				} else {
-					counter.increment(frequency);
-				}
-			} else {
-				int colonIndex = keyphrase.indexOf(":");
-				if (colonIndex != -1) {
-					keyphrase = keyphrase.substring(colonIndex + 2);
-				}
-				for (String id : vocabulary.getSenses(keyphrase)) {
-					keyphrase = vocabulary.getTerm(id);
-					Counter counter = keyphrases.get(keyphrase);
-					if (counter == null) {
-						keyphrases.put(keyphrase, new Counter(frequency));
-					} else {
-						counter.increment(frequency);
-					}
-				}
-			}
+			indexingMode.addGivenKeyphrase(keyphrase, frequency, keyphrases);
 		}
 		if (keyphrases.isEmpty()) {
 			log.warn("Warning! This documents does not contain valid keyphrases");
@@ -1464,8 +2951,7 @@ public class MauiFilter extends Filter {
 			return null;
 		} else {
 			log.debug("Found " + keyphrases.size());
-			totalCorrect = keyphrases.size();
-			return keyphrases;
+			return new GivenKeyphrases(keyphrases);
 		}
 	}
 
@@ -1476,6 +2962,25 @@ public class MauiFilter extends Filter {
 	 */
 	public String pseudoPhrase(String str) {
 
+		LRUCache<String, String> cache = pseudoPhraseCache;
+		if (cache == null) {
+			return computePseudoPhrase(str);
+		}
+
+		// strings without a pseudo phrase are cached as empty strings
+		String result = cache.get(str);
+		if (result == null) {
+			result = computePseudoPhrase(str);
+			cache.put(str, result == null ? "" : result);
+		}
+		if (result == null || result.length() == 0) {
+			return null;
+		}
+		return result;
+	}
+
+	private String computePseudoPhrase(String str) {
+
 		String result = "";
 
 		str = str.toLowerCase();
@@ -1508,6 +3013,42 @@ public class MauiFilter extends Filter {
 		return null;
 	}
 
+	/**
+	 * Reads the model, and converts the dictionaries of models saved by
+	 * older versions.
+	 */
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		in.defaultReadObject();
+		featureMatrices = new ThreadLocal<FeatureMatrix>();
+		preFilterBuffers = new ThreadLocal<PreFilterBuffers>();
+		candidateArenas = new ThreadLocal<CandidateArena>();
+		indexingMode = createIndexingMode();
+		if (classifierData != null) {
+			featureLayout = buildFeatureLayout();
+		}
+		preFilteredCandidates = new AtomicLong();
+		prunedCandidates = new AtomicLong();
+		if (globalDictionary != null) {
+			globalFrequencies = toCountTable(globalDictionary);
+			globalDictionary = null;
+		}
+		if (keyphraseDictionary != null) {
+			keyphraseFrequencies = toCountTable(keyphraseDictionary);
+			keyphraseDictionary = null;
+		}
+		if (compiledClassifier == null && classifier != null) {
+			compileClassifier();
+		}
+	}
+
+	private static CountTable toCountTable(HashMap<String, Counter> dictionary) {
+		CountTable table = new CountTable(dictionary.size());
+		for (Map.Entry<String, Counter> entry : dictionary.entrySet()) {
+			table.increment(entry.getKey(), entry.getValue().value());
+		}
+		return table;
+	}
+
 	public class MauiFilterException extends Exception {
 		/**
 		 * 
@@ -287,109 +287,17 @@ public class MauiPhraseFilter extends Filter implements OptionHandler {
      * @return the same text with large tokens separated by \n
      */
     public String tokenize(String text) {
-        StringBuffer result = new StringBuffer();
-        int j = 0;
-        boolean phraseStart = true;
-        boolean seenNewLine = false;
-        boolean haveSeenHyphen = false;
-        boolean haveSeenSlash = false;
-        while (j < text.length()) {
-            boolean isWord = false;
-            boolean potNumber = false;
-            int startj = j;
-            while (j < text.length()) {
-                char ch = text.charAt(j);
-                if (Character.isLetterOrDigit(ch)) {
-                    potNumber = true;
-                    if (Character.isLetter(ch)) {
-                        isWord = true;
-                    }
-                    j++;
-                } else if ((!m_DisallowInternalPeriods && (ch == '.'))
-                        || (ch == '@') || (ch == '_') || (ch == '&')
-                        || (ch == '/') || (ch == '\'')) {
-                    if ((j > 0) && (j + 1 < text.length())
-                            && Character.isLetterOrDigit(text.charAt(j - 1))
-                            && Character.isLetterOrDigit(text.charAt(j + 1))) {
-                        j++;
-                    } else {
-                        break;
-                    }
-                } else if (ch == '\'') {
-                    if ((j > 0)
-                            && Character.isLetterOrDigit(text.charAt(j - 1))) {
-                        j++;
-                    } else {
-                        break;
-                    }
-                } else {
-                    break;
-                }
-            }
-            if (isWord == true) {
-                if (!phraseStart) {
-                    if (haveSeenHyphen) {
-                        result.append(' ');
-                    } else if (haveSeenSlash) {
-                        result.append('/');
-                    } else {
-                        result.append(' ');
-                    }
-                }
-                result.append(text.substring(startj, j));
-                if (j == text.length()) {
-                    break;
-                }
-                phraseStart = false;
-                seenNewLine = false;
-                haveSeenHyphen = false;
-                haveSeenSlash = false;
-                if (Character.isWhitespace(text.charAt(j))) {
-                    if (text.charAt(j) == '\n') {
-                        seenNewLine = true;
-                    }
-                } else if (text.charAt(j) == '-') {
-                    haveSeenHyphen = true;
-                } else if (text.charAt(j) == '/') {
-                    haveSeenSlash = true;
-                } else {
-                    phraseStart = true;
-                    result.append('\n');
-                }
-                j++;
-            } else if (j == text.length()) {
-                break;
-            } else if (text.charAt(j) == '\n') {
-                if (seenNewLine) {
-                    if (phraseStart == false) {
-                        result.append('\n');
-                        phraseStart = true;
-                    }
-                } else if (potNumber) {
-                    if (phraseStart == false) {
-                        phraseStart = true;
-                        result.append('\n');
-                    }
-                }
-                seenNewLine = true;
-                j++;
-            } else if (Character.isWhitespace(text.charAt(j))) {
-                if (potNumber) {
-                    if (phraseStart == false) {
-                        phraseStart = true;
-                        result.append('\n');
-                    }
-                }
-                j++;
-            } else {
-                if (phraseStart == false) {
-                    result.append('\n');
-                    phraseStart = true;
-                }
-                j++;
+        StringBuilder result = new StringBuilder();
+        PhraseTokenizer tokenizer = new PhraseTokenizer(text, m_DisallowInternalPeriods);
+        while (tokenizer.next()) {
+            if (result.length() > 0) {
+                result.append(tokenizer.startsPhrase() ? '\n' : ' ');
             }
+            result.append(tokenizer.getText(), tokenizer.getStart(), tokenizer.getEnd());
+        }
+        if (result.length() > 0 && tokenizer.endedPhrase()) {
+            result.append('\n');
         }
-
         return result.toString();
     }
 
@@ -0,0 +1,260 @@
+package com.entopix.maui.filters;
+
+/**
+ * Splits a text into phrases and words in a single pass, without copying
+ * the text. The words and phrase boundaries are the same as in the output
+ * of MauiPhraseFilter, where phrases are separated by '\n' and words by
+ * ' ': numbers, punctuation and empty lines end a phrase, and words that
+ * are split with '/' across white space are joined.
+ * <br>
+ * The text can also be a StreamingText, which is read as it is scanned.
+ * <br>
+ * Usage:
+ * <pre>
+ * PhraseTokenizer tokenizer = new PhraseTokenizer(text, false);
+ * while (tokenizer.next()) {
+ *     if (tokenizer.startsPhrase()) ...
+ *     ... tokenizer.getText(), tokenizer.getStart(), tokenizer.getEnd()
+ * }
+ * </pre>
+ *
+ * @author zelandiya
+ *
+ */
+public class PhraseTokenizer {
+
+	/** How a piece of a word is separated from the previous one */
+	private static final int NEW_PHRASE = 0;
+	private static final int SPACE = 1;
+	private static final int SLASH = 2;
+
+	private final CharSequence text;
+
+	/** The text, if it is read as it is scanned */
+	private final StreamingText stream;
+
+	/** Length of the text, if it is not streamed */
+	private final int length;
+
+	private final boolean disallowInternalPeriods;
+
+	/** Position of the scan */
+	private int j = 0;
+
+	/** State of the scan, as in MauiPhraseFilter.tokenize() */
+	private boolean phraseStart = true;
+	private boolean seenNewLine = false;
+	private boolean haveSeenHyphen = false;
+	private boolean haveSeenSlash = false;
+
+	/** The piece of a word found by the last call of scan() */
+	private int pieceStart;
+	private int pieceEnd;
+	private int pieceSeparator;
+	private boolean hasPiece = false;
+
+	/** The current word */
+	private CharSequence wordText;
+	private int wordStart;
+	private int wordEnd;
+	private boolean wordStartsPhrase;
+
+	/** Buffer for words that consist of several pieces */
+	private final StringBuilder joined = new StringBuilder();
+
+	/**
+	 * Creates a tokenizer for the given text.
+	 *
+	 * @param text the text
+	 * @param disallowInternalPeriods if true, periods end words
+	 */
+	public PhraseTokenizer(CharSequence text, boolean disallowInternalPeriods) {
+		this.text = text;
+		this.disallowInternalPeriods = disallowInternalPeriods;
+		this.stream = text instanceof StreamingText ? (StreamingText) text : null;
+		this.length = text.length();
+	}
+
+	/**
+	 * Moves to the next word, and returns false if there is none.
+	 */
+	public boolean next() {
+		if (!hasPiece && !scan()) {
+			return false;
+		}
+		wordText = text;
+		wordStart = pieceStart;
+		wordEnd = pieceEnd;
+		wordStartsPhrase = pieceSeparator == NEW_PHRASE;
+
+		// pieces that follow a '/' belong to the same word
+		boolean isJoined = false;
+		while (scan() && pieceSeparator == SLASH) {
+			if (!isJoined) {
+				joined.setLength(0);
+				joined.append(text, wordStart, wordEnd);
+				isJoined = true;
+			}
+			joined.append('/').append(text, pieceStart, pieceEnd);
+		}
+		if (isJoined) {
+			wordText = joined;
+			wordStart = 0;
+			wordEnd = joined.length();
+		}
+		return true;
+	}
+
+	/**
+	 * Returns true if the current word is the first of a phrase.
+	 */
+	public boolean startsPhrase() {
+		return wordStartsPhrase;
+	}
+
+	/**
+	 * Returns the characters that contain the current word: the text
+	 * itself, unless the word has been joined from several pieces.
+	 * The contents only remain valid until the next call of next().
+	 */
+	public CharSequence getText() {
+		return wordText;
+	}
+
+	/**
+	 * Returns the start of the current word in getText().
+	 */
+	public int getStart() {
+		return wordStart;
+	}
+
+	/**
+	 * Returns the end (exclusive) of the current word in getText().
+	 */
+	public int getEnd() {
+		return wordEnd;
+	}
+
+	/**
+	 * Returns the current word.
+	 */
+	public String getWord() {
+		return wordText.subSequence(wordStart, wordEnd).toString();
+	}
+
+	/**
+	 * Returns true if the last phrase has been ended by a character after
+	 * the last word, i.e. MauiPhraseFilter's output ends with '\n'. Only
+	 * meaningful once next() has returned false.
+	 */
+	public boolean endedPhrase() {
+		return phraseStart;
+	}
+
+	/**
+	 * Returns the first position in the text that the tokenizer may still
+	 * read. The characters before it are not needed to find the next words.
+	 */
+	public int getNeededFrom() {
+		int neededFrom = Math.max(j - 1, 0);
+		if (hasPiece) {
+			neededFrom = Math.min(neededFrom, pieceStart);
+		}
+		return neededFrom;
+	}
+
+	/**
+	 * Returns true if the text has a character at the given position.
+	 */
+	private boolean has(int index) {
+		if (stream == null) {
+			return index < length;
+		}
+		return stream.has(index);
+	}
+
+	/**
+	 * Finds the next piece of a word, and returns false at the end of
+	 * the text.
+	 */
+	private boolean scan() {
+		hasPiece = false;
+		while (has(j)) {
+			boolean isWord = false;
+			boolean potNumber = false;
+			int startj = j;
+			while (has(j)) {
+				char ch = text.charAt(j);
+				if (Character.isLetterOrDigit(ch)) {
+					potNumber = true;
+					if (Character.isLetter(ch)) {
+						isWord = true;
+					}
+					j++;
+				} else if ((!disallowInternalPeriods && (ch == '.'))
+						|| (ch == '@') || (ch == '_') || (ch == '&')
+						|| (ch == '/') || (ch == '\'')) {
+					if ((j > 0) && has(j + 1)
+							&& Character.isLetterOrDigit(text.charAt(j - 1))
+							&& Character.isLetterOrDigit(text.charAt(j + 1))) {
+						j++;
+					} else {
+						break;
+					}
+				} else {
+					break;
+				}
+			}
+			if (isWord) {
+				if (phraseStart) {
+					pieceSeparator = NEW_PHRASE;
+				} else if (haveSeenSlash && !haveSeenHyphen) {
+					pieceSeparator = SLASH;
+				} else {
+					pieceSeparator = SPACE;
+				}
+				pieceStart = startj;
+				pieceEnd = j;
+				hasPiece = true;
+				phraseStart = false;
+				if (!has(j)) {
+					return true;
+				}
+				seenNewLine = false;
+				haveSeenHyphen = false;
+				haveSeenSlash = false;
+				char ch = text.charAt(j);
+				if (Character.isWhitespace(ch)) {
+					if (ch == '\n') {
+						seenNewLine = true;
+					}
+				} else if (ch == '-') {
+					haveSeenHyphen = true;
+				} else if (ch == '/') {
+					haveSeenSlash = true;
+				} else {
+					phraseStart = true;
+				}
+				j++;
+				return true;
+			} else if (!has(j)) {
+				break;
+			} else if (text.charAt(j) == '\n') {
+				if (seenNewLine || potNumber) {
+					phraseStart = true;
+				}
+				seenNewLine = true;
+				j++;
+			} else if (Character.isWhitespace(text.charAt(j))) {
+				if (potNumber) {
+					phraseStart = true;
+				}
+				j++;
+			} else {
+				phraseStart = true;
+				j++;
+			}
+		}
+		return false;
+	}
+}
@@ -0,0 +1,226 @@
+package com.entopix.maui.filters;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+import weka.core.Instance;
+import weka.core.Instances;
+
+/**
+ * A logistic model on a few cheap features, which is used to remove the
+ * candidates that are clearly not topics before they are scored by the
+ * classifier of MauiFilter.
+ * <br>
+ * The model is trained on the same data as the classifier. The scores of
+ * the topics assigned manually in that data are kept, so that the
+ * threshold below which candidates are removed can be chosen for the
+ * fraction of those topics that should be kept (the recall).
+ *
+ * @author zelandiya
+ *
+ */
+class PreFilter implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	/** Maximum number of Newton steps */
+	private static final int MAX_ITERATIONS = 50;
+
+	/** Ridge that keeps the weights finite when the data is separable */
+	private static final double RIDGE = 1e-4;
+
+	/** Columns of the features in the feature matrix */
+	private final int[] columns;
+
+	/** Mean and standard deviation of each feature in the training data */
+	private final double[] means;
+	private final double[] scales;
+
+	/** Weights of the standardized features, and the bias last */
+	private final double[] weights;
+
+	/** Scores of the positive training instances, in ascending order */
+	private final double[] positiveScores;
+
+	/**
+	 * Trains the model on the given attributes of the data. Instances with
+	 * a class value above 0 are positive.
+	 *
+	 * @param data the training data
+	 * @param columns the indices of the attributes to use
+	 */
+	PreFilter(Instances data, int[] columns) {
+		this.columns = columns;
+		int numFeatures = columns.length;
+		int numRows = data.numInstances();
+
+		// standardize the features
+		double[][] x = new double[numRows][numFeatures + 1];
+		double[] y = new double[numRows];
+		double[] w = new double[numRows];
+		means = new double[numFeatures];
+		scales = new double[numFeatures];
+		for (int i = 0; i < numRows; i++) {
+			Instance instance = data.instance(i);
+			for (int j = 0; j < numFeatures; j++) {
+				x[i][j] = instance.value(columns[j]);
+				means[j] += x[i][j];
+			}
+			x[i][numFeatures] = 1;
+			y[i] = instance.classValue() > 0 ? 1 : 0;
+			w[i] = instance.weight();
+		}
+		for (int j = 0; j < numFeatures; j++) {
+			means[j] = numRows > 0 ? means[j] / numRows : 0;
+			double variance = 0;
+			for (int i = 0; i < numRows; i++) {
+				variance += (x[i][j] - means[j]) * (x[i][j] - means[j]);
+			}
+			scales[j] = numRows > 0 ? Math.sqrt(variance / numRows) : 0;
+			if (scales[j] == 0) {
+				scales[j] = 1;
+			}
+			for (int i = 0; i < numRows; i++) {
+				x[i][j] = (x[i][j] - means[j]) / scales[j];
+			}
+		}
+
+		weights = fitLogistic(x, y, w, numFeatures + 1);
+
+		int numPositive = 0;
+		for (int i = 0; i < numRows; i++) {
+			if (y[i] == 1) {
+				numPositive++;
+			}
+		}
+		positiveScores = new double[numPositive];
+		for (int i = 0, k = 0; i < numRows; i++) {
+			if (y[i] == 1) {
+				positiveScores[k++] = score(data.instance(i));
+			}
+		}
+		Arrays.sort(positiveScores);
+	}
+
+	/**
+	 * Fits the weights of a logistic regression with Newton's method.
+	 */
+	private static double[] fitLogistic(double[][] x, double[] y, double[] w, int n) {
+		double[] beta = new double[n];
+		for (int iteration = 0; iteration < MAX_ITERATIONS; iteration++) {
+			double[] gradient = new double[n];
+			double[][] hessian = new double[n][n];
+			for (int i = 0; i < x.length; i++) {
+				double p = 1 / (1 + Math.exp(-dot(beta, x[i])));
+				double g = w[i] * (y[i] - p);
+				double h = w[i] * p * (1 - p);
+				for (int j = 0; j < n; j++) {
+					gradient[j] += g * x[i][j];
+					for (int k = 0; k < n; k++) {
+						hessian[j][k] += h * x[i][j] * x[i][k];
+					}
+				}
+			}
+			for (int j = 0; j < n; j++) {
+				gradient[j] -= RIDGE * beta[j];
+				hessian[j][j] += RIDGE;
+			}
+			double[] step = solve(hessian, gradient);
+			double change = 0;
+			for (int j = 0; j < n; j++) {
+				beta[j] += step[j];
+				change = Math.max(change, Math.abs(step[j]));
+			}
+			if (change < 1e-8) {
+				break;
+			}
+		}
+		return beta;
+	}
+
+	/**
+	 * Solves a x = b by Gaussian elimination with partial pivoting.
+	 */
+	private static double[] solve(double[][] a, double[] b) {
+		int n = b.length;
+		for (int col = 0; col < n; col++) {
+			int pivot = col;
+			for (int row = col + 1; row < n; row++) {
+				if (Math.abs(a[row][col]) > Math.abs(a[pivot][col])) {
+					pivot = row;
+				}
+			}
+			double[] swapRow = a[col];
+			a[col] = a[pivot];
+			a[pivot] = swapRow;
+			double swap = b[col];
+			b[col] = b[pivot];
+			b[pivot] = swap;
+			for (int row = col + 1; row < n; row++) {
+				double factor = a[row][col] / a[col][col];
+				for (int k = col; k < n; k++) {
+					a[row][k] -= factor * a[col][k];
+				}
+				b[row] -= factor * b[col];
+			}
+		}
+		double[] x = new double[n];
+		for (int row = n - 1; row >= 0; row--) {
+			double sum = b[row];
+			for (int k = row + 1; k < n; k++) {
+				sum -= a[row][k] * x[k];
+			}
+			x[row] = sum / a[row][row];
+		}
+		return x;
+	}
+
+	private static double dot(double[] a, double[] b) {
+		double sum = 0;
+		for (int j = 0; j < a.length; j++) {
+			sum += a[j] * b[j];
+		}
+		return sum;
+	}
+
+	/**
+	 * Returns the score of a row of the matrix, the log odds of it being
+	 * a topic.
+	 */
+	double score(FeatureMatrix matrix, int row) {
+		double score = weights[columns.length];
+		for (int j = 0; j < columns.length; j++) {
+			score += weights[j] * (matrix.get(row, columns[j]) - means[j]) / scales[j];
+		}
+		return score;
+	}
+
+	/**
+	 * Returns the score of an instance with the attributes of the
+	 * training data.
+	 */
+	double score(Instance instance) {
+		double score = weights[columns.length];
+		for (int j = 0; j < columns.length; j++) {
+			score += weights[j] * (instance.value(columns[j]) - means[j]) / scales[j];
+		}
+		return score;
+	}
+
+	/**
+	 * Returns the score below which candidates are removed, so that the
+	 * given fraction of the positive training instances is kept.
+	 */
+	double getThreshold(double recall) {
+		if (positiveScores.length == 0) {
+			return Double.NEGATIVE_INFINITY;
+		}
+		int k = (int) Math.floor((1 - Math.min(recall, 1)) * positiveScores.length);
+		return positiveScores[Math.min(k, positiveScores.length - 1)];
+	}
+
+	int getNumPositives() {
+		return positiveScores.length;
+	}
+
+}
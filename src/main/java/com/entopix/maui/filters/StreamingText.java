@@ -0,0 +1,106 @@
+package com.entopix.maui.filters;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+
+/**
+ * A text that is read from a Reader as it is scanned, so that only a
+ * window of it is kept in memory. Positions are counted from the start of
+ * the text, but only the characters from the last position given to
+ * discardBefore() on are available.
+ * <br>
+ * length() is the number of characters read so far, and has() reads more
+ * characters when needed. Errors of the reader are thrown as
+ * UncheckedIOException.
+ *
+ * @author zelandiya
+ *
+ */
+class StreamingText implements CharSequence {
+
+	private final Reader reader;
+
+	/** Characters from position offset on */
+	private char[] buffer = new char[8192];
+	private int offset = 0;
+	private int count = 0;
+
+	/** Characters before this position are no longer needed */
+	private int mark = 0;
+
+	private boolean endOfText = false;
+
+	StreamingText(Reader reader) {
+		this.reader = reader;
+	}
+
+	/**
+	 * Returns true if the text has a character at the given position,
+	 * reading from the reader if it has not been read yet.
+	 */
+	boolean has(int index) {
+		while (index >= offset + count) {
+			if (endOfText || !fill()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Lets the characters before the given position be discarded.
+	 */
+	void discardBefore(int index) {
+		if (index > mark) {
+			mark = index;
+		}
+	}
+
+	/**
+	 * Reads the next characters, and returns false at the end of the text.
+	 */
+	private boolean fill() {
+		int discard = Math.min(mark - offset, count);
+		if (discard > 0) {
+			System.arraycopy(buffer, discard, buffer, 0, count - discard);
+			offset += discard;
+			count -= discard;
+		}
+		if (count == buffer.length) {
+			buffer = Arrays.copyOf(buffer, buffer.length * 2);
+		}
+		int read;
+		try {
+			read = reader.read(buffer, count, buffer.length - count);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		if (read < 0) {
+			endOfText = true;
+			return false;
+		}
+		count += read;
+		return true;
+	}
+
+	public int length() {
+		return offset + count;
+	}
+
+	public char charAt(int index) {
+		return buffer[index - offset];
+	}
+
+	public CharSequence subSequence(int start, int end) {
+		return new String(buffer, start - offset, end - start);
+	}
+
+	/**
+	 * Returns the characters that are currently kept.
+	 */
+	public String toString() {
+		return new String(buffer, 0, count);
+	}
+}
@@ -26,6 +26,7 @@ import java.util.Collections;
 import java.util.Enumeration;
 import java.util.List;
 
+import com.entopix.maui.filters.FeatureExtractor;
 import com.entopix.maui.filters.MauiFilter;
 import com.entopix.maui.filters.MauiFilter.MauiFilterException;
 import com.entopix.maui.stemmers.PorterStemmer;
@@ -209,6 +210,16 @@ public class MauiModelBuilder implements OptionHandler {
 	
 	WikiFeatures wikiFeatures = null;
 
+	/**
+	 * Fraction of the topics kept by the pre-filter, or 0 for none
+	 */
+	private double preFilterRecall = 0;
+
+	/**
+	 * Extractors of additional features
+	 */
+	private List<FeatureExtractor> featureExtractors = new ArrayList<FeatureExtractor>();
+
 	/**
 	 * Maui filter object
 	 */
@@ -255,6 +266,23 @@ public class MauiModelBuilder implements OptionHandler {
 		this.vocabulary = vocabulary;
 	}
 
+	/**
+	 * Adds an extractor of features that are computed in addition to
+	 * those of Maui.
+	 */
+	public void addFeatureExtractor(FeatureExtractor extractor) {
+		featureExtractors.add(extractor);
+	}
+
+	/**
+	 * Trains a pre-filter with the model, which removes clearly negative
+	 * candidates before they are scored, keeping the given fraction of the
+	 * topics of the training documents. See MauiFilter.setPreFilterRecall().
+	 */
+	public void setPreFilterRecall(double preFilterRecall) {
+		this.preFilterRecall = preFilterRecall;
+	}
+
 	public void setBasicFeatures(boolean useBasicFeatures) {
 		this.useBasicFeatures = useBasicFeatures;
 	}
@@ -553,6 +581,10 @@ public class MauiModelBuilder implements OptionHandler {
 		mauiFilter.setLengthFeature(useLengthFeature);
 		mauiFilter.setThesaurusFeatures(useThesaurusFeatures);
 		mauiFilter.setWikipediaFeatures(useWikipediaFeatures, wikiFeatures);
+		for (FeatureExtractor extractor : featureExtractors) {
+			mauiFilter.addFeatureExtractor(extractor);
+		}
+		mauiFilter.setPreFilterRecall(preFilterRecall);
 
 		mauiFilter.setClassifier(classifier);
 
@@ -9,6 +9,12 @@ import java.util.ArrayList;
 import java.util.Enumeration;
 import java.util.List;
 import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
 import com.entopix.maui.filters.MauiFilter;
 import com.entopix.maui.filters.MauiFilter.MauiFilterException;
 import com.entopix.maui.stemmers.PorterStemmer;
@@ -89,6 +95,9 @@ import weka.core.Utils;
  * -c<br>
  * Cut off threshold for the topic probability.<p>
  *
+ * -w "number of threads"<br>
+ * Extracts topics from several documents in parallel (default: 1).<p>
+ *
  * @author Eibe Frank (eibe@cs.waikato.ac.nz), zelandiya (medelyan@gmail.com)
  * 
  * @version 1.3
@@ -175,6 +184,12 @@ public class MauiTopicExtractor implements OptionHandler {
 	 */
 	boolean buildGlobalDictionary = false;
 
+	/**
+	 * Number of threads that extract topics from the documents in parallel.
+	 * The topics are the same as with one thread.
+	 */
+	public int numThreads = 1;
+
 	/**
 	 * Parses a given list of options controlling the behaviour of this object.
 	 * Valid options are:
@@ -227,6 +242,9 @@ public class MauiTopicExtractor implements OptionHandler {
 	 * -c<br>
 	 * Cut off threshold for the topic probability.<p>
 	 *
+	 * -w "number of threads"<br>
+	 * Extracts topics from several documents in parallel (default: 1).<p>
+	 *
 	 * @param options the list of options as an array of strings
 	 * @exception Exception if an option is not supported
 	 */
@@ -309,6 +327,11 @@ public class MauiTopicExtractor implements OptionHandler {
 			this.cutOffTopicProbability = Double.parseDouble(cutOffProbability);
 		}
 
+		String numThreadsString = Utils.getOption('w', options);
+		if (numThreadsString.length() > 0) {
+			this.numThreads = Integer.parseInt(numThreadsString);
+		}
+
 		Utils.checkForRemainingOptions(options);
 	}
 
@@ -320,7 +343,7 @@ public class MauiTopicExtractor implements OptionHandler {
 	@Override
 	public String[] getOptions() {
 
-		String[] options = new String[22];
+		String[] options = new String[24];
 		int current = 0;
 
 		options[current++] = "-l";
@@ -343,6 +366,8 @@ public class MauiTopicExtractor implements OptionHandler {
 		options[current++] = "" + (stemmer.getClass().getName());
 		options[current++] = "-s";
 		options[current++] = "" + (stopwords.getClass().getName());
+		options[current++] = "-w";
+		options[current++] = "" + (this.numThreads);
 
 		if (this.serialize) {
 			options[current++] = "-z";
@@ -379,7 +404,7 @@ public class MauiTopicExtractor implements OptionHandler {
 	@Override
 	public Enumeration<Option> listOptions() {
 
-		Vector<Option> newVector = new Vector<Option>(13);
+		Vector<Option> newVector = new Vector<Option>(14);
 
 		newVector.addElement(new Option(
 				"\tSpecifies name of directory.",
@@ -420,6 +445,9 @@ public class MauiTopicExtractor implements OptionHandler {
 		newVector.addElement(new Option(
 				"\tAlso write stemmed phrase and score into \".key\" file.",
 				"a", 0, "-a"));
+		newVector.addElement(new Option(
+				"\tSpecifies number of threads extracting topics in parallel (default: 1).",
+				"w", 1, "-w <number of threads>"));
 
 		return newVector.elements();
 	}
@@ -462,6 +490,11 @@ public class MauiTopicExtractor implements OptionHandler {
 	 */
 	public List<MauiTopics> extractTopics(List<MauiDocument> documents) throws MauiFilterException {
 
+		// global dictionaries built from the documents need all of them first
+		if (numThreads > 1 && !buildGlobalDictionary) {
+			return extractTopicsInParallel(documents);
+		}
+
 		List<MauiTopics> allDocumentTopics = new ArrayList<MauiTopics>();
 
 		// Weka data structures
@@ -549,6 +582,68 @@ public class MauiTopicExtractor implements OptionHandler {
 		return allDocumentTopics;
 	}
 
+	/**
+	 * Extracts topics from the documents with numThreads threads. The
+	 * topics are returned in the order of the documents, and are the same
+	 * as those extracted one document at a time.
+	 */
+	private List<MauiTopics> extractTopicsInParallel(List<MauiDocument> documents) throws MauiFilterException {
+
+		mauiFilter.prepareForConcurrentExtraction();
+
+		log.info("-- Extracting keyphrases with " + numThreads + " threads... ");
+
+		ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+		try {
+			List<Future<MauiTopics>> futures = new ArrayList<Future<MauiTopics>>();
+			for (final MauiDocument document : documents) {
+				futures.add(executor.submit(new Callable<MauiTopics>() {
+					public MauiTopics call() throws MauiFilterException {
+						return extractDocumentTopics(document);
+					}
+				}));
+			}
+
+			List<MauiTopics> allDocumentTopics = new ArrayList<MauiTopics>();
+			for (Future<MauiTopics> future : futures) {
+				allDocumentTopics.add(future.get());
+			}
+			return allDocumentTopics;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while extracting keyphrases", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof MauiFilterException) {
+				throw (MauiFilterException) e.getCause();
+			}
+			throw new RuntimeException(e.getCause());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Extracts the topics of a single document, as extractTopics() does
+	 * with the instances returned by the filter.
+	 */
+	private MauiTopics extractDocumentTopics(MauiDocument document) throws MauiFilterException {
+
+		log.info("-- Processing document: " + document.getFileName());
+
+		MauiTopics documentTopics = new MauiTopics(document.getFilePath());
+		documentTopics.setPossibleCorrect(document.getTopicsString().split("\n").length);
+
+		List<Topic> extracted = mauiFilter.extractTopics(document.getTextContent(),
+				topicsPerDocument, cutOffTopicProbability, document.getTopicsString());
+		for (Topic extractedTopic : extracted) {
+			Topic topic = new Topic(extractedTopic.getTitle(), "1", extractedTopic.getProbability());
+			topic.setCorrectness(extractedTopic.isCorrect());
+			documentTopics.addTopic(topic);
+			log.info("Topic " + topic.getTitle() + " " + topic.getId() + " " + topic.getProbability() + " > " + topic.isCorrect());
+		}
+		return documentTopics;
+	}
+
 
 
 	/**
@@ -561,7 +656,7 @@ public class MauiTopicExtractor implements OptionHandler {
 		// If TFxIDF values are to be computed from the test corpus
 		if (buildGlobalDictionary == true) {
 			log.info("-- The global dictionaries will be built from this test collection..");
-			mauiFilter.globalDictionary = null;
+			mauiFilter.clearGlobalDictionary();
 		}
 		
 
@@ -1,9 +1,25 @@
 package com.entopix.maui.main;
 
+import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.io.FileUtils;
 //import org.apache.log4j.BasicConfigurator;
@@ -15,19 +31,26 @@ import com.entopix.maui.stemmers.Stemmer;
 import com.entopix.maui.stopwords.Stopwords;
 import com.entopix.maui.stopwords.StopwordsFactory;
 import com.entopix.maui.util.DataLoader;
+import com.entopix.maui.util.ExtractionResult;
 import com.entopix.maui.util.Topic;
+import com.entopix.maui.util.TopicCache;
 import com.entopix.maui.vocab.Vocabulary;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import weka.core.Attribute;
-import weka.core.FastVector;
-import weka.core.Instance;
-import weka.core.Instances;
-
 /**
  * This class shows how to use Maui on a single document or just a string of
  * text.
+ * <br>
+ * The topics can also be extracted asynchronously, e.g. from a non-blocking
+ * server: the extractTopics...Async methods return at once, and complete
+ * their future on a bounded pool of threads, which share the model.
+ * Extractions wait in a bounded queue for a free thread; when the queue is
+ * full, new ones are either rejected or block the caller until there is
+ * room, see setAsyncExecution().
+ * <br>
+ * With setCache(), the topics of texts that are submitted again are taken
+ * from a cache instead of being extracted again.
  *
  * @author a_medelyan
  *
@@ -44,6 +67,22 @@ public final class MauiWrapper {
     // these need to be loaded either from a file, or from a pre-loaded object
     private MauiFilter extractionModel = null;
     private Vocabulary vocabulary = null;
+
+    // configuration of the asynchronous extraction
+    private int asyncThreads = Runtime.getRuntime().availableProcessors();
+    private int asyncQueueCapacity = 1000;
+    private boolean blockWhenSaturated = false;
+    private boolean useVirtualThreads = false;
+
+    // pool of the asynchronous extraction, created on first use
+    private ThreadPoolExecutor asyncExecutor = null;
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    // topics of the texts already processed, if enabled, which are kept
+    // apart from those of other wrappers that share the cache
+    private volatile TopicCache cache = null;
+    private static final AtomicLong nextCacheOwner = new AtomicLong();
+    private final long cacheOwner = nextCacheOwner.incrementAndGet();
     
     /**
      * Constructor to initialize MauiWrapper with default
@@ -102,7 +141,9 @@ public final class MauiWrapper {
     
 
     /**
-     * Assigns the vocabulary to model
+     * Assigns the vocabulary to model. Has to be called before the first
+     * asynchronous extraction, after which the model can no longer be
+     * changed.
      * @param vocabularyName
      * @param stemmer
      * @param stopwords
@@ -131,6 +172,34 @@ public final class MauiWrapper {
         
         if (vocabularyName.equals("none"))
         	extractionModel.setMinNumOccur(2);
+
+        invalidateCache();
+    }
+
+    /**
+     * Caches the topics of the texts, so that a text submitted again with
+     * the same number of topics is not processed again, or stops caching
+     * them if the cache is null. The cache can be shared with other
+     * wrappers: each of them only gets the topics it has extracted.
+     */
+    public void setCache(TopicCache cache) {
+        this.cache = cache;
+    }
+
+    public TopicCache getCache() {
+        return cache;
+    }
+
+    /**
+     * Removes the cached topics, including those of other wrappers that
+     * share the cache. Must be called when the model or the vocabulary is
+     * changed other than with setModelParameters().
+     */
+    public void invalidateCache() {
+        TopicCache currentCache = cache;
+        if (currentCache != null) {
+            currentCache.invalidateAll();
+        }
     }
 
     /**
@@ -147,79 +216,54 @@ public final class MauiWrapper {
             log.warn("Text is too short: " + text.length() + " characters.");
         }
 
-        FastVector atts = new FastVector(3);
-        atts.addElement(new Attribute("filename", (FastVector) null));
-        atts.addElement(new Attribute("doc", (FastVector) null));
-        atts.addElement(new Attribute("keyphrases", (FastVector) null));
-        Instances data = new Instances("keyphrase_training_data", atts, 0);
-
-        double[] newInst = new double[3];
-
-        newInst[0] = data.attribute(0).addStringValue("inputFile");
-        newInst[1] = data.attribute(1).addStringValue(text);
-        newInst[2] = Instance.missingValue();
-        data.add(new Instance(1.0, newInst));
-
-        extractionModel.input(data.instance(0));
-
-        data = data.stringFreeStructure();
-        Instance[] topRankedInstances = new Instance[topicsPerDocument];
-        Instance inst;
-        int index = 0;
-        // Iterating over all extracted keyphrases (inst)
-        while ((inst = extractionModel.output()) != null) {
-        	
-        	double probability = inst.value(extractionModel.getProbabilityIndex());
-            if (index < topicsPerDocument) {
-             	if (probability > 0) {
-             		topRankedInstances[index] = inst;
-             		index++;
-             	}
-            }
-         }
-
-        ArrayList<Topic> topics = new ArrayList<Topic>();
+        TopicCache currentCache = cache;
+        if (currentCache == null) {
+            return new ArrayList<Topic>(extractionModel.extractTopics(text, topicsPerDocument));
+        }
+        TopicCache.Key key = TopicCache.key(cacheOwner, text, topicsPerDocument);
+        int generation = currentCache.getGeneration();
+        List<Topic> topics = currentCache.get(key);
+        if (topics == null) {
+            topics = extractionModel.extractTopics(text, topicsPerDocument);
+            currentCache.put(key, generation, topics);
+        }
+        return new ArrayList<Topic>(topics);
+    }
 
-        for (int i = 0; i < topicsPerDocument; i++) {
-            if (topRankedInstances[i] != null) {
-            	double probability = topRankedInstances[i].value(extractionModel.getProbabilityIndex());
-                String topic = topRankedInstances[i].stringValue(extractionModel.getOutputFormIndex());
-                String id = "";
-                if (vocabulary != null) {
-                	id = vocabulary.getFormatedName(topRankedInstances[i].stringValue(0));
-                }
-                topics.add(new Topic(topic, id, probability));
-
-                /**
-                 * Indices of attributes in classifierData
-        // General features
-                // 2 term frequency
-                // 3 inverse document frequency
-                // 4 TFxIDF
-                // 5 position of the first occurrence
-                // 6 position of the last occurrence
-                // 7 spread of occurrences
-                // 8 domain keyphraseness
-                // 9 term length
-                // 10 generality
-                // 11 node degree
-                String features = "";
-                for (int j = 2; j < 11; j++) {
-                    double value = topRankedInstances[i].value(j);
-                    if (value < 1) {
-                        value = Math.round(value * 100.0) / 100.0;
-                    } else {
-                        value = Math.round(value);
-                    }
-                    features = features + value + ' ';
-                }
-                topics.add(topic + " #" + vocabulary.getFormatedName(topRankedInstances[i].stringValue(0)) + " >> " + features);
-                         */
-		
+    /**
+     * Extracts the main topics from a given text within a time limit. If
+     * the time runs out, or the calling thread is interrupted, the best
+     * topics found so far are returned, and the result is marked as
+     * truncated, see MauiFilter.extractTopics(CharSequence, int, long, TimeUnit).
+     * Only complete results are cached.
+     *
+     * @param text
+     * @param topicsPerDocument
+     * @param timeout
+     * @param unit
+     * @return the topics, and whether the extraction was truncated
+     * @throws MauiFilterException
+     */
+    public ExtractionResult extractTopicsFromText(String text, int topicsPerDocument, long timeout, TimeUnit unit)
+            throws MauiFilterException {
+
+        TopicCache currentCache = cache;
+        TopicCache.Key key = null;
+        int generation = 0;
+        if (currentCache != null) {
+            key = TopicCache.key(cacheOwner, text, topicsPerDocument);
+            generation = currentCache.getGeneration();
+            List<Topic> topics = currentCache.get(key);
+            if (topics != null) {
+                return new ExtractionResult(topics, false);
             }
         }
-        extractionModel.batchFinished();
-        return topics;
+
+        ExtractionResult result = extractionModel.extractTopics(text, topicsPerDocument, timeout, unit);
+        if (currentCache != null && !result.isTruncated()) {
+            currentCache.put(key, generation, result.getTopics());
+        }
+        return result;
     }
 
     /* Main method to extract the main topics from a given text
@@ -234,47 +278,215 @@ public final class MauiWrapper {
             throw new Exception("Text is too short!");
         }
 
-        FastVector atts = new FastVector(3);
-        atts.addElement(new Attribute("filename", (FastVector) null));
-        atts.addElement(new Attribute("doc", (FastVector) null));
-        atts.addElement(new Attribute("keyphrases", (FastVector) null));
-        Instances data = new Instances("keyphrase_training_data", atts, 0);
+        return extractTopicsFromText(text, topicsPerDocument);
+    }
 
-        double[] newInst = new double[3];
+    /**
+     * Configures the asynchronous extraction. Must be called before the
+     * first asynchronous extraction, or after shutdown().
+     *
+     * @param numThreads number of extractions running at the same time
+     * @param queueCapacity number of extractions that can wait for a thread
+     * @param blockWhenSaturated if true, a new extraction blocks the caller
+     * while the queue is full, otherwise its future fails at once with a
+     * RejectedExecutionException
+     * @param useVirtualThreads run the extractions on virtual threads, if
+     * the JDK supports them (Java 21 and later)
+     */
+    public synchronized void setAsyncExecution(int numThreads, int queueCapacity,
+            boolean blockWhenSaturated, boolean useVirtualThreads) {
+        if (asyncExecutor != null) {
+            throw new IllegalStateException("Asynchronous extraction has already started");
+        }
+        if (numThreads < 1 || queueCapacity < 1) {
+            throw new IllegalArgumentException("The number of threads and the queue capacity must be positive");
+        }
+        this.asyncThreads = numThreads;
+        this.asyncQueueCapacity = queueCapacity;
+        this.blockWhenSaturated = blockWhenSaturated;
+        this.useVirtualThreads = useVirtualThreads;
+    }
 
-        newInst[0] = data.attribute(0).addStringValue("inputFile");
-        newInst[1] = data.attribute(1).addStringValue(text);
-        newInst[2] = Instance.missingValue();
-        data.add(new Instance(1.0, newInst));
+    /**
+     * Extracts the main topics from a given text asynchronously. The
+     * future fails with a MauiFilterException if the topics cannot be
+     * extracted, or with a RejectedExecutionException if the queue is full.
+     * Topics found in the cache are returned without using the queue.
+     *
+     * @param text
+     * @param topicsPerDocument
+     * @return the topics, as extractTopicsFromText() returns them
+     */
+    public CompletableFuture<List<Topic>> extractTopicsFromTextAsync(final String text, final int topicsPerDocument) {
+        final TopicCache currentCache = cache;
+        if (currentCache == null) {
+            return submitExtraction(new Callable<List<Topic>>() {
+                @Override
+                public List<Topic> call() throws MauiFilterException {
+                    return extractTopicsFromText(text, topicsPerDocument);
+                }
+            });
+        }
 
-        extractionModel.input(data.instance(0));
+        final TopicCache.Key key = TopicCache.key(cacheOwner, text, topicsPerDocument);
+        final int generation = currentCache.getGeneration();
+        List<Topic> cached = currentCache.get(key);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
+        }
+        return submitExtraction(new Callable<List<Topic>>() {
+            @Override
+            public List<Topic> call() throws MauiFilterException {
+                List<Topic> topics = extractionModel.extractTopics(text, topicsPerDocument);
+                currentCache.put(key, generation, topics);
+                return new ArrayList<Topic>(topics);
+            }
+        });
+    }
 
-        data = data.stringFreeStructure();
-        Instance[] topRankedInstances = new Instance[topicsPerDocument];
-        Instance inst;
+    /**
+     * Extracts the main topics from a text file asynchronously. The file is
+     * read by the thread that extracts the topics, and the future fails with
+     * an IOException if it cannot be read.
+     *
+     * @see #extractTopicsFromTextAsync(String, int)
+     */
+    public CompletableFuture<List<Topic>> extractTopicsFromFileAsync(final String filePath, final int numberOfTopics) {
+        return submitExtraction(new Callable<List<Topic>>() {
+            @Override
+            public List<Topic> call() throws IOException, MauiFilterException {
+                return extractTopicsFromFile(filePath, numberOfTopics);
+            }
+        });
+    }
 
-        // Iterating over all extracted keyphrases (inst)
-        while ((inst = extractionModel.output()) != null) {
+    /**
+     * Returns the number of asynchronous extractions waiting for a thread.
+     */
+    public synchronized int getQueuedExtractions() {
+        return asyncExecutor == null ? 0 : asyncExecutor.getQueue().size();
+    }
 
-            int index = (int) inst.value(extractionModel.getRankIndex()) - 1;
+    /**
+     * Returns the number of asynchronous extractions that have been accepted
+     * and not finished yet, including those waiting in the queue.
+     */
+    public int getInFlightExtractions() {
+        return inFlight.get();
+    }
 
-            if (index < topicsPerDocument) {
-                topRankedInstances[index] = inst;
-            }
+    /**
+     * Stops the threads of the asynchronous extraction once the accepted
+     * extractions are finished. New extractions start a new pool.
+     */
+    public synchronized void shutdown() {
+        if (asyncExecutor != null) {
+            asyncExecutor.shutdown();
+            asyncExecutor = null;
+        }
+    }
+
+    /**
+     * Runs an extraction on the pool, and completes the returned future with
+     * its result.
+     */
+    private CompletableFuture<List<Topic>> submitExtraction(final Callable<List<Topic>> extraction) {
+        final CompletableFuture<List<Topic>> future = new CompletableFuture<List<Topic>>();
+        ThreadPoolExecutor executor;
+        try {
+            executor = getAsyncExecutor();
+        } catch (MauiFilterException e) {
+            future.completeExceptionally(e);
+            return future;
         }
 
-        List<Topic> topics = new ArrayList<Topic>();
+        inFlight.incrementAndGet();
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        // skip extractions cancelled while they waited
+                        if (!future.isDone()) {
+                            future.complete(extraction.call());
+                        }
+                    } catch (Throwable e) {
+                        future.completeExceptionally(e);
+                    } finally {
+                        inFlight.decrementAndGet();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            inFlight.decrementAndGet();
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
 
-        for (int i = 0; i < topicsPerDocument; i++) {
-            if (topRankedInstances[i] != null) {
-                String id = vocabulary.getFormatedName(topRankedInstances[i].stringValue(0));
-                String title = topRankedInstances[i].stringValue(extractionModel.getOutputFormIndex());
-                double probability = topRankedInstances[i].value(extractionModel.getProbabilityIndex());
-                topics.add(new Topic(title, id, probability));
+    /**
+     * Returns the pool of the asynchronous extraction, and creates it on
+     * the first call. The model is prepared to be used by several threads.
+     */
+    private synchronized ThreadPoolExecutor getAsyncExecutor() throws MauiFilterException {
+        if (asyncExecutor == null) {
+            extractionModel.prepareForConcurrentExtraction();
+
+            RejectedExecutionHandler saturationPolicy;
+            if (blockWhenSaturated) {
+                saturationPolicy = new RejectedExecutionHandler() {
+                    @Override
+                    public void rejectedExecution(Runnable task, ThreadPoolExecutor executor) {
+                        if (executor.isShutdown()) {
+                            throw new RejectedExecutionException("Asynchronous extraction has been shut down");
+                        }
+                        try {
+                            executor.getQueue().put(task);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            throw new RejectedExecutionException("Interrupted while waiting for the queue", e);
+                        }
+                        // the pool may have been shut down while the caller
+                        // waited, and its threads may have stopped after
+                        // emptying the queue, so the task would never run
+                        if (executor.isShutdown() && executor.getQueue().remove(task)) {
+                            throw new RejectedExecutionException("Asynchronous extraction has been shut down");
+                        }
+                    }
+                };
+            } else {
+                saturationPolicy = new ThreadPoolExecutor.AbortPolicy();
+            }
+
+            asyncExecutor = new ThreadPoolExecutor(asyncThreads, asyncThreads, 0L, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<Runnable>(asyncQueueCapacity), getThreadFactory(), saturationPolicy);
+        }
+        return asyncExecutor;
+    }
+
+    /**
+     * Returns a factory of virtual threads if they are requested and the JDK
+     * supports them, or of daemon platform threads otherwise.
+     */
+    private ThreadFactory getThreadFactory() {
+        if (useVirtualThreads) {
+            try {
+                // Thread.ofVirtual().factory(), looked up as the code is built for older JDKs
+                Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+                return (ThreadFactory) Class.forName("java.lang.Thread$Builder").getMethod("factory").invoke(builder);
+            } catch (Exception e) {
+                log.warn("Virtual threads are not supported by this JDK, using platform threads");
             }
         }
-        extractionModel.batchFinished();
-        return topics;
+        final AtomicInteger threadNumber = new AtomicInteger();
+        return new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable task) {
+                Thread thread = new Thread(task, "maui-extraction-" + threadNumber.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
     }
 
     /**
@@ -292,4 +504,42 @@ public final class MauiWrapper {
         return extractTopicsFromText(documentText, numberOfTopics);
     }
 
+    /**
+     * Extracts the main topics from a text file without loading it into
+     * memory, for very large documents. The file is read in the platform's
+     * default encoding, as by extractTopicsFromFile(String, int), with
+     * malformed input replaced by U+FFFD, and the topics are not cached.
+     *
+     * @param path
+     * @param numberOfTopics
+     * @return
+     * @throws IOException if the file cannot be read
+     * @throws MauiFilterException
+     */
+    public ArrayList<Topic> extractTopicsFromFile(Path path, int numberOfTopics) throws IOException, MauiFilterException {
+        // unlike Files.newBufferedReader(), an InputStreamReader replaces
+        // malformed input instead of failing, as readFileToString() does
+        Reader reader = new BufferedReader(new InputStreamReader(Files.newInputStream(path), Charset.defaultCharset()));
+        try {
+            return extractTopicsFromReader(reader, numberOfTopics);
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Extracts the main topics from a text that is read from a reader,
+     * without keeping it in memory. The reader is read to the end, but not
+     * closed, and the topics are not cached.
+     *
+     * @param reader
+     * @param numberOfTopics
+     * @return
+     * @throws IOException if the text cannot be read
+     * @throws MauiFilterException
+     */
+    public ArrayList<Topic> extractTopicsFromReader(Reader reader, int numberOfTopics) throws IOException, MauiFilterException {
+        return new ArrayList<Topic>(extractionModel.extractTopics(reader, numberOfTopics));
+    }
+
 }
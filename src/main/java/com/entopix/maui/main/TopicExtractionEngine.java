@@ -0,0 +1,107 @@
+package com.entopix.maui.main;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.entopix.maui.filters.MauiFilter;
+import com.entopix.maui.filters.MauiFilter.MauiFilterException;
+import com.entopix.maui.util.DataLoader;
+import com.entopix.maui.util.ExtractionResult;
+import com.entopix.maui.util.Topic;
+import com.entopix.maui.vocab.Vocabulary;
+
+/**
+ * Extracts topics from texts with a trained model, from any number of
+ * threads at the same time.
+ * <br>
+ * Unlike MauiFilter used as a Weka filter, the engine keeps no state
+ * between documents: each call of extract() computes the candidates,
+ * features and probabilities of its text on its own, and only shares the
+ * model, the vocabulary and their caches, which are thread-safe. The
+ * classifier is the one that was trained with the model.
+ * <br>
+ * The engine takes over the model and the vocabulary, which must not be
+ * changed or used as a Weka filter afterwards. The setters of the model
+ * throw an IllegalStateException once the engine has been created, so
+ * settings such as the stemmer have to be made before.
+ * <br>
+ * Usage:
+ * <pre>
+ * MauiFilter model = DataLoader.loadModel(modelName);
+ * model.setVocabularyName(vocabularyName);
+ * ... (stemmer, stopwords, language, as for MauiWrapper)
+ * TopicExtractionEngine engine = new TopicExtractionEngine(model, vocabulary);
+ * List&lt;Topic&gt; topics = engine.extract(text, 10);
+ * </pre>
+ *
+ * @author zelandiya
+ *
+ */
+public final class TopicExtractionEngine {
+
+	private final MauiFilter model;
+
+	private final Vocabulary vocabulary;
+
+	/**
+	 * Creates an engine for a trained model and the vocabulary it uses,
+	 * or null if the model does not use a vocabulary.
+	 *
+	 * @throws MauiFilterException if the model has not been built, or
+	 * needs a vocabulary that is not given
+	 * @throws IllegalStateException if the model is already used for
+	 * concurrent extraction with another vocabulary
+	 */
+	public TopicExtractionEngine(MauiFilter model, Vocabulary vocabulary) throws MauiFilterException {
+		this.model = model;
+		this.vocabulary = vocabulary;
+		if (vocabulary != null && vocabulary != model.getVocabulary()) {
+			model.setVocabulary(vocabulary);
+		}
+		model.prepareForConcurrentExtraction();
+	}
+
+	/**
+	 * Loads a model from a file and creates an engine for it.
+	 *
+	 * @see #TopicExtractionEngine(MauiFilter, Vocabulary)
+	 */
+	public static TopicExtractionEngine load(String modelName, Vocabulary vocabulary) throws MauiFilterException {
+		return new TopicExtractionEngine(DataLoader.loadModel(modelName), vocabulary);
+	}
+
+	/**
+	 * Returns the topN best topics of the text, best first. Can be called
+	 * from several threads at the same time.
+	 *
+	 * @param text the document text
+	 * @param topN the maximum number of topics to return
+	 * @return the topics with a probability above 0, with the values of
+	 * their features
+	 * @throws MauiFilterException if the topics could not be extracted
+	 */
+	public List<Topic> extract(String text, int topN) throws MauiFilterException {
+		return model.extractTopics(text, topN);
+	}
+
+	/**
+	 * Returns the best topics of the text that can be found within the
+	 * timeout. Can be called from several threads at the same time.
+	 *
+	 * @param text the document text
+	 * @param topN the maximum number of topics to return
+	 * @param timeout the time the extraction may take
+	 * @param unit the unit of the timeout
+	 * @return the topics, and whether part of the text or of its
+	 * candidates was left out to meet the timeout
+	 * @throws MauiFilterException if the topics could not be extracted
+	 * @see MauiFilter#extractTopics(CharSequence, int, long, TimeUnit)
+	 */
+	public ExtractionResult extract(String text, int topN, long timeout, TimeUnit unit) throws MauiFilterException {
+		return model.extractTopics(text, topN, timeout, unit);
+	}
+
+	public Vocabulary getVocabulary() {
+		return vocabulary;
+	}
+}
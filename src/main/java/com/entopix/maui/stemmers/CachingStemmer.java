@@ -0,0 +1,114 @@
+package com.entopix.maui.stemmers;
+
+import java.util.ArrayList;
+
+import com.entopix.maui.util.LRUCache;
+
+/**
+ * Wraps another stemmer and caches the stems of the most recently used
+ * words. Since the word frequencies in natural language text are very
+ * skewed, even a small cache avoids most calls to the wrapped stemmer.
+ * <br>
+ * The cache can be shared between threads. Some stemmers keep state while
+ * stemming a word, so the wrapped stemmer is only called by one thread at
+ * a time. The cache is saved together with the stemmer, e.g. in a model.
+ *
+ * @author zelandiya
+ */
+public class CachingStemmer extends Stemmer {
+
+	private static final long serialVersionUID = 1L;
+
+	/** Default maximum number of cached stems */
+	public static final int DEFAULT_CACHE_SIZE = 50000;
+
+	/** The stemmer that computes the stems */
+	private final Stemmer stemmer;
+
+	/** Cache of stems */
+	private final LRUCache<String, String> cache;
+
+	/**
+	 * Wraps the stemmer and caches up to DEFAULT_CACHE_SIZE stems.
+	 */
+	public CachingStemmer(Stemmer stemmer) {
+		this(stemmer, DEFAULT_CACHE_SIZE);
+	}
+
+	/**
+	 * Wraps the stemmer and caches up to maxSize stems.
+	 */
+	public CachingStemmer(Stemmer stemmer, int maxSize) {
+		if (stemmer instanceof CachingStemmer) {
+			stemmer = ((CachingStemmer) stemmer).getStemmer();
+		}
+		this.stemmer = stemmer;
+		this.cache = new LRUCache<String, String>(maxSize);
+	}
+
+	/**
+	 * Returns the wrapped stemmer.
+	 */
+	public Stemmer getStemmer() {
+		return stemmer;
+	}
+
+	/**
+	 * Returns the cache, with its hit, miss and eviction counts.
+	 */
+	public LRUCache<String, String> getCache() {
+		return cache;
+	}
+
+	/**
+	 * Returns the fraction of words whose stem was found in the cache.
+	 */
+	public double getHitRate() {
+		return cache.getHitRate();
+	}
+
+	public String stem(String str) {
+		String stem = cache.get(str);
+		if (stem == null) {
+			synchronized (stemmer) {
+				stem = stemmer.stem(str);
+			}
+			cache.put(str, stem);
+		}
+		return stem;
+	}
+
+	/**
+	 * Fills the cache with the stems of the given words, e.g. frequent
+	 * words of the documents that will be processed. If there are more
+	 * words than fit into the cache, the words given first are kept.
+	 * The words of a model need no warming: their stems are kept in the
+	 * model's lexicon, which does not ask the stemmer for them.
+	 */
+	public void warm(Iterable<String> words) {
+		ArrayList<String> wordList = new ArrayList<String>();
+		for (String word : words) {
+			wordList.add(word);
+		}
+		// the words are stemmed in reverse order, so that the words given
+		// first end up most recently used and are evicted last
+		for (int i = Math.min(wordList.size(), cache.getMaxSize()) - 1; i >= 0; i--) {
+			stem(wordList.get(i));
+		}
+		cache.resetStatistics();
+	}
+
+	/**
+	 * Returns true if both stemmers compute the same stems, i.e. are of the
+	 * same class once caching stemmers are unwrapped.
+	 */
+	public static boolean isSameStemmer(Stemmer stemmer1, Stemmer stemmer2) {
+		if (stemmer1 instanceof CachingStemmer) {
+			stemmer1 = ((CachingStemmer) stemmer1).getStemmer();
+		}
+		if (stemmer2 instanceof CachingStemmer) {
+			stemmer2 = ((CachingStemmer) stemmer2).getStemmer();
+		}
+		return stemmer1.getClass() == stemmer2.getClass();
+	}
+}
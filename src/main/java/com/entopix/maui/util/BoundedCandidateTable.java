@@ -0,0 +1,183 @@
+package com.entopix.maui.util;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+
+/**
+ * A table of the candidates of a document that holds at most a given
+ * number of them, using the Space-Saving algorithm (Metwally et al., 2005):
+ * when a new candidate is seen and the table is full, the least frequent
+ * candidate is replaced, and the new one starts with that candidate's
+ * frequency plus one.
+ * <br>
+ * The frequency of a candidate is thus at most its number of occurrences
+ * plus its frequency error, see Candidate.getFrequencyError(), and the
+ * error is at most the number of occurrences of all candidates divided by
+ * the size of the table. A candidate that occurs more often than that is
+ * never replaced. The first occurrence of a candidate is the first one
+ * since it was last added to the table, and its last occurrence is exact.
+ * <br>
+ * As long as the table is not full, it holds the same candidates as a
+ * HashMap, added in the same order.
+ *
+ * @author zelandiya
+ *
+ */
+public class BoundedCandidateTable {
+
+	/** Maximum number of candidates */
+	private final int maxSize;
+
+	/** Candidates by name, in the order in which they were added */
+	private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>();
+
+	/** Entries in a binary heap, the least frequent first */
+	private final Entry[] heap;
+
+	private int evictions = 0;
+
+	/**
+	 * Creates a table holding at most maxSize candidates.
+	 */
+	public BoundedCandidateTable(int maxSize) {
+		if (maxSize < 1) {
+			throw new IllegalArgumentException("Table size must be positive: " + maxSize);
+		}
+		this.maxSize = maxSize;
+		this.heap = new Entry[maxSize];
+	}
+
+	/**
+	 * Records an occurrence of the candidate with the given name, and
+	 * returns the candidate. If it is not in the table, a new candidate is
+	 * created, replacing the least frequent one if the table is full.
+	 *
+	 * @param name the name of the candidate
+	 * @param fullForm the full form of this occurrence
+	 * @param position the position of this occurrence in the document
+	 */
+	public Candidate recordOccurrence(String name, String fullForm, int position) {
+		Entry entry = entries.get(name);
+		if (entry != null) {
+			entry.candidate.recordOccurrence(fullForm, position);
+			siftDown(entry.heapIndex);
+			return entry.candidate;
+		}
+
+		Candidate candidate = new Candidate(name, fullForm, position);
+		int heapIndex;
+		if (entries.size() < maxSize) {
+			heapIndex = entries.size();
+		} else {
+			// the new candidate may have occurred as often as the one it
+			// replaces, and has at most one more occurrence
+			Entry least = heap[0];
+			entries.remove(least.candidate.getName());
+			candidate.frequency = least.candidate.frequency + 1;
+			candidate.frequencyError = least.candidate.frequency;
+			heapIndex = 0;
+			evictions++;
+		}
+		entry = new Entry(candidate, heapIndex);
+		entries.put(name, entry);
+		heap[heapIndex] = entry;
+		if (heapIndex > 0) {
+			siftUp(heapIndex);
+		} else {
+			siftDown(0);
+		}
+		return candidate;
+	}
+
+	/**
+	 * Returns the candidate with the given name, or null if it is not in
+	 * the table.
+	 */
+	public Candidate get(String name) {
+		Entry entry = entries.get(name);
+		return entry == null ? null : entry.candidate;
+	}
+
+	/**
+	 * Returns the number of candidates in the table.
+	 */
+	public int size() {
+		return entries.size();
+	}
+
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	/**
+	 * Returns the number of candidates that have been replaced.
+	 */
+	public int getEvictions() {
+		return evictions;
+	}
+
+	/**
+	 * Returns a HashMap with the candidates, added in the order in which
+	 * they were added to this table.
+	 */
+	public HashMap<String, Candidate> toHashMap() {
+		HashMap<String, Candidate> candidates = new HashMap<String, Candidate>();
+		for (Entry entry : entries.values()) {
+			candidates.put(entry.candidate.getName(), entry.candidate);
+		}
+		return candidates;
+	}
+
+	private void siftUp(int index) {
+		Entry entry = heap[index];
+		while (index > 0) {
+			int parent = (index - 1) / 2;
+			if (heap[parent].candidate.frequency <= entry.candidate.frequency) {
+				break;
+			}
+			move(heap[parent], index);
+			index = parent;
+		}
+		move(entry, index);
+	}
+
+	private void siftDown(int index) {
+		Entry entry = heap[index];
+		int size = entries.size();
+		while (true) {
+			int child = 2 * index + 1;
+			if (child >= size) {
+				break;
+			}
+			if (child + 1 < size
+					&& heap[child + 1].candidate.frequency < heap[child].candidate.frequency) {
+				child++;
+			}
+			if (entry.candidate.frequency <= heap[child].candidate.frequency) {
+				break;
+			}
+			move(heap[child], index);
+			index = child;
+		}
+		move(entry, index);
+	}
+
+	private void move(Entry entry, int index) {
+		heap[index] = entry;
+		entry.heapIndex = index;
+	}
+
+	/**
+	 * A candidate and its place in the heap.
+	 */
+	private static class Entry {
+
+		final Candidate candidate;
+		int heapIndex;
+
+		Entry(Candidate candidate, int heapIndex) {
+			this.candidate = candidate;
+			this.heapIndex = heapIndex;
+		}
+	}
+}
@@ -1,5 +1,6 @@
 package com.entopix.maui.util;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -35,6 +36,12 @@ public class Candidate {
      */
     int frequency;
 
+    /**
+     * Number of occurrences by which frequency may be too high, if the
+     * candidate was collected in a BoundedCandidateTable
+     */
+    int frequencyError;
+
     /**
      * Normalized frequenc
      */
@@ -50,11 +57,44 @@ public class Candidate {
      */
     double lastOccurrence;
 
-   /**
-     * HashMap to store occurrence frequencies of all full forms
+    /**
+     * Number of occurrences of the first full form
+     */
+    int fullFormCount;
+
+    /**
+     * A second full form and its number of occurrences, or null. Most
+     * candidates only have one or two full forms, so they are stored
+     * in fields until a third one is seen.
+     */
+    String secondForm;
+    int secondFormCount;
+
+    /**
+     * HashMap to store occurrence frequencies of all full forms, once
+     * there are more than two, or null
      */
     HashMap<String, Counter> fullForms;
 
+    /**
+     * The keys of fullForms in the order in which they were seen, or null
+     */
+    ArrayList<String> fullFormOrder;
+
+    /**
+     * True if fullForms has been returned by getFullForms(), and may
+     * have been changed elsewhere
+     */
+    boolean fullFormsShared;
+
+    /**
+     * The most frequent full form and its number of occurrences, updated
+     * with each occurrence. Null if several forms are equally frequent, in
+     * which case the best one is found as in the HashMap of full forms.
+     */
+    String bestFullForm;
+    int bestFullFormCount;
+
     /**
      * Constructor for the first occurrence of a candidate
      */
@@ -65,10 +105,10 @@ public class Candidate {
         this.firstOccurrence = (double) firstOccurrence;
         this.lastOccurrence = (double) firstOccurrence;
         this.fullForm = fullForm;
+        this.fullFormCount = 1;
 
-        fullForms = new HashMap<String, Counter>();
-        fullForms.put(fullForm, new Counter());
-
+        this.bestFullForm = fullForm;
+        this.bestFullFormCount = 1;
     }
 
     public Candidate(String name, String fullForm, int firstOccurrence,
@@ -80,20 +120,22 @@ public class Candidate {
         this.firstOccurrence = (double) firstOccurrence;
         this.lastOccurrence = (double) firstOccurrence;
         this.fullForm = fullForm;
+        this.fullFormCount = 1;
 
-        fullForms = new HashMap<String, Counter>();
-        fullForms.put(fullForm, new Counter());
-
+        this.bestFullForm = fullForm;
+        this.bestFullFormCount = 1;
     }
 
     public Candidate getCopy() {
         Candidate newCandidate = new Candidate(this.name, this.fullForm, (int) this.firstOccurrence);
 
         newCandidate.frequency = this.frequency;
+        newCandidate.frequencyError = this.frequencyError;
         newCandidate.termFrequency = this.termFrequency;
         newCandidate.firstOccurrence = this.firstOccurrence;
         newCandidate.lastOccurrence = this.lastOccurrence;
-        newCandidate.fullForms = this.fullForms;
+        newCandidate.fullForms = this.getFullForms();
+        newCandidate.fullFormsShared = true;
         return newCandidate;
     }
 
@@ -116,9 +158,39 @@ public class Candidate {
      * their frequencies
      */
     public HashMap<String, Counter> getFullForms() {
+        if (fullForms == null) {
+            storeFullFormsMap();
+        }
+        fullFormsShared = true;
         return fullForms;
     }
 
+    /**
+     * Returns a new HashMap with the full forms stored in fields, added in
+     * the order in which they were seen.
+     */
+    private HashMap<String, Counter> createFullFormsMap() {
+        HashMap<String, Counter> map = new HashMap<String, Counter>();
+        map.put(fullForm, new Counter(fullFormCount));
+        if (secondForm != null) {
+            map.put(secondForm, new Counter(secondFormCount));
+        }
+        return map;
+    }
+
+    /**
+     * Moves the full forms stored in fields into fullForms.
+     */
+    private void storeFullFormsMap() {
+        fullForms = createFullFormsMap();
+        fullFormOrder = new ArrayList<String>(4);
+        fullFormOrder.add(fullForm);
+        if (secondForm != null) {
+            fullFormOrder.add(secondForm);
+        }
+        secondForm = null;
+    }
+
     /**
      * Records the occurrence position and the full form of a candidate
      *
@@ -129,12 +201,49 @@ public class Candidate {
         frequency++;
 
         lastOccurrence = occurrence;
-        if (fullForms.containsKey(fullForm)) {
-            fullForms.get(fullForm).increment();
+        addFullForm(fullForm, 1);
+    }
+
+    /**
+     * Adds occurrences of a full form, and updates the most frequent one.
+     */
+    private void addFullForm(String form, int count) {
+        int formCount;
+        if (fullForms != null) {
+            Counter counter = fullForms.get(form);
+            if (counter == null) {
+                counter = new Counter(count);
+                fullForms.put(form, counter);
+                if (fullFormOrder != null) {
+                    fullFormOrder.add(form);
+                }
+            } else {
+                counter.increment(count);
+            }
+            formCount = counter.value();
+        } else if (fullForm.equals(form)) {
+            fullFormCount += count;
+            formCount = fullFormCount;
+        } else if (secondForm == null) {
+            secondForm = form;
+            secondFormCount = count;
+            formCount = count;
+        } else if (secondForm.equals(form)) {
+            secondFormCount += count;
+            formCount = secondFormCount;
         } else {
-            fullForms.put(fullForm, new Counter());
+            storeFullFormsMap();
+            fullForms.put(form, new Counter(count));
+            fullFormOrder.add(form);
+            formCount = count;
         }
 
+        if (formCount > bestFullFormCount) {
+            bestFullForm = form;
+            bestFullFormCount = formCount;
+        } else if (formCount == bestFullFormCount) {
+            bestFullForm = null;
+        }
     }
 
     /**
@@ -144,6 +253,21 @@ public class Candidate {
      * @return best full form of a candidate
      */
     public String getBestFullForm() {
+        if (fullFormsShared) {
+            return getBestFullForm(fullForms);
+        }
+        if (bestFullForm == null) {
+            // equally frequent forms, the first one in the HashMap wins.
+            // It is not kept, as the order changes when the map grows
+            if (fullForms != null) {
+                return getBestFullForm(fullForms);
+            }
+            return getBestFullForm(createFullFormsMap());
+        }
+        return bestFullForm;
+    }
+
+    private static String getBestFullForm(HashMap<String, Counter> fullForms) {
         int maxFrequency = 0;
         String bestFullForm = "";
         for (String form : fullForms.keySet()) {
@@ -164,6 +288,15 @@ public class Candidate {
         return frequency;
     }
 
+    /**
+     * Returns the number of occurrences by which getFrequency() may be too
+     * high. It is 0 unless the candidate was collected in a table of limited
+     * size, see BoundedCandidateTable.
+     */
+    public int getFrequencyError() {
+        return frequencyError;
+    }
+
     public double getTermFrequency() {
         return termFrequency;
     }
@@ -212,6 +345,7 @@ public class Candidate {
         // title stays the same
         // frequency increments
         this.frequency += previousCandidate.frequency;
+        this.frequencyError += previousCandidate.frequencyError;
 
         // term frequency increments
         this.termFrequency += previousCandidate.termFrequency;
@@ -229,22 +363,58 @@ public class Candidate {
         }
 
         // full forms should be added to the hash of full forms
-        if (fullForms == null) {
-            log.info("Is it ever empty??? ");
-            fullForms = previousCandidate.fullForms;
-        }
-        HashMap<String, Counter> prevFullForms = previousCandidate.fullForms;
+        HashMap<String, Counter> prevFullForms = previousCandidate.getFullForms();
         for (String prevForm : prevFullForms.keySet()) {
             int count = prevFullForms.get(prevForm).value();
-            if (fullForms.containsKey(prevForm)) {
-                fullForms.get(prevForm).increment(count);
-            } else {
-                fullForms.put(prevForm, new Counter(count));
-            }
+            addFullForm(prevForm, count);
         }
 
     }
 
+    /**
+     * Moves the positions of the occurrences by the given number of words,
+     * e.g. if the candidate was extracted from a part of a document that
+     * starts after that many words.
+     */
+    public void shiftPositions(int offset) {
+        firstOccurrence += offset;
+        lastOccurrence += offset;
+    }
+
+    /**
+     * Adds the occurrences of the same candidate in a later part of the
+     * document, whose positions have been shifted to this candidate's. The
+     * result is the same as if the occurrences had been recorded one by one,
+     * including the order in which the full forms were seen.
+     *
+     * @param laterCandidate
+     */
+    public void appendOccurrences(Candidate laterCandidate) {
+        frequency += laterCandidate.frequency;
+        frequencyError += laterCandidate.frequencyError;
+        lastOccurrence = laterCandidate.lastOccurrence;
+
+        HashMap<String, Counter> laterFullForms = laterCandidate.fullForms;
+        if (laterFullForms == null) {
+            addFullForm(laterCandidate.fullForm, laterCandidate.fullFormCount);
+            if (laterCandidate.secondForm != null) {
+                addFullForm(laterCandidate.secondForm, laterCandidate.secondFormCount);
+            }
+        } else if (laterCandidate.fullFormOrder != null) {
+            for (String form : laterCandidate.fullFormOrder) {
+                Counter counter = laterFullForms.get(form);
+                if (counter != null) {
+                    addFullForm(form, counter.value());
+                }
+            }
+        } else {
+            // the order was not recorded, e.g. for copies
+            for (String form : laterFullForms.keySet()) {
+                addFullForm(form, laterFullForms.get(form).value());
+            }
+        }
+    }
+
     /**
      * Retrieves all recorded info about a candidate
      *
@@ -255,6 +425,7 @@ public class Candidate {
         String result = "";
 
         String allFullForms = "";
+        HashMap<String, Counter> fullForms = getFullForms();
         for (String form : fullForms.keySet()) {
             allFullForms += form + " (" + fullForms.get(form) + "), ";
         }
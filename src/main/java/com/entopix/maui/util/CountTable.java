@@ -0,0 +1,206 @@
+package com.entopix.maui.util;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A hash table that counts strings, e.g. the number of documents each
+ * candidate appears in. Keys and counts are stored in two flat arrays with
+ * open addressing, so an entry needs no objects besides the key itself.
+ * As in a HashMap, null is a valid key.
+ * <br>
+ * The table is serialized as a list of keys and counts, and the hash slots
+ * are rebuilt when it is read. Keys are written as their length and UTF-8
+ * bytes, as writeUTF() cannot write strings longer than 64 KB.
+ *
+ * @author zelandiya
+ *
+ */
+public class CountTable implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	/** Keys, or null for empty slots */
+	private transient String[] keys;
+
+	/** Counts of the keys in the same slots */
+	private transient int[] counts;
+
+	/** Number of keys, including null */
+	private transient int size;
+
+	/** Whether null is a key, and its count */
+	private transient boolean hasNullKey;
+	private transient int nullKeyCount;
+
+	/**
+	 * Creates an empty table.
+	 */
+	public CountTable() {
+		this(16);
+	}
+
+	/**
+	 * Creates an empty table with room for the given number of keys.
+	 */
+	public CountTable(int expectedSize) {
+		allocate(expectedSize);
+	}
+
+	/**
+	 * Returns the number of keys in the table.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Returns the count of the key, or 0 if it is not in the table.
+	 */
+	public int get(String key) {
+		if (key == null) {
+			return nullKeyCount;
+		}
+		int slot = find(key);
+		return keys[slot] == null ? 0 : counts[slot];
+	}
+
+	/**
+	 * Returns true if the key is in the table.
+	 */
+	public boolean containsKey(String key) {
+		if (key == null) {
+			return hasNullKey;
+		}
+		return keys[find(key)] != null;
+	}
+
+	/**
+	 * Adds 1 to the count of the key, and returns the new count.
+	 */
+	public int increment(String key) {
+		return increment(key, 1);
+	}
+
+	/**
+	 * Adds the given number to the count of the key, which is added to the
+	 * table with that count if it is not yet in it, and returns the new count.
+	 */
+	public int increment(String key, int count) {
+		if (key == null) {
+			if (!hasNullKey) {
+				hasNullKey = true;
+				size++;
+			}
+			nullKeyCount += count;
+			return nullKeyCount;
+		}
+		int slot = find(key);
+		if (keys[slot] != null) {
+			counts[slot] += count;
+			return counts[slot];
+		}
+		if ((size + 1) * 3 > keys.length * 2) {
+			rehash(keys.length * 2);
+			slot = find(key);
+		}
+		keys[slot] = key;
+		counts[slot] = count;
+		size++;
+		return count;
+	}
+
+	/**
+	 * Returns the slot of the key, or the empty slot where it belongs.
+	 */
+	private int find(String key) {
+		int mask = keys.length - 1;
+		int slot = hash(key) & mask;
+		String other;
+		while ((other = keys[slot]) != null) {
+			if (other.equals(key)) {
+				return slot;
+			}
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	private void allocate(int expectedSize) {
+		int capacity = 16;
+		while (capacity * 2 < expectedSize * 3) {
+			capacity *= 2;
+		}
+		keys = new String[capacity];
+		counts = new int[capacity];
+		size = 0;
+		hasNullKey = false;
+		nullKeyCount = 0;
+	}
+
+	private void rehash(int capacity) {
+		String[] oldKeys = keys;
+		int[] oldCounts = counts;
+		keys = new String[capacity];
+		counts = new int[capacity];
+		int mask = capacity - 1;
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldKeys[i] != null) {
+				int slot = hash(oldKeys[i]) & mask;
+				while (keys[slot] != null) {
+					slot = (slot + 1) & mask;
+				}
+				keys[slot] = oldKeys[i];
+				counts[slot] = oldCounts[i];
+			}
+		}
+	}
+
+	private static int hash(String key) {
+		// spread the bits, as the slots are selected by the lowest ones
+		int hash = key.hashCode();
+		hash ^= (hash >>> 16);
+		hash *= 0x85ebca6b;
+		hash ^= (hash >>> 13);
+		return hash;
+	}
+
+	private void writeObject(ObjectOutputStream out) throws IOException {
+		out.defaultWriteObject();
+		out.writeBoolean(hasNullKey);
+		out.writeInt(nullKeyCount);
+		out.writeInt(hasNullKey ? size - 1 : size);
+		for (int i = 0; i < keys.length; i++) {
+			if (keys[i] != null) {
+				byte[] bytes = keys[i].getBytes(StandardCharsets.UTF_8);
+				out.writeInt(bytes.length);
+				out.write(bytes);
+				out.writeInt(counts[i]);
+			}
+		}
+	}
+
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		in.defaultReadObject();
+		boolean readNullKey = in.readBoolean();
+		int readNullKeyCount = in.readInt();
+		int numKeys = in.readInt();
+		allocate(numKeys);
+		if (readNullKey) {
+			increment(null, readNullKeyCount);
+		}
+		for (int i = 0; i < numKeys; i++) {
+			String key = readKey(in);
+			increment(key, in.readInt());
+		}
+	}
+
+	private static String readKey(ObjectInputStream in) throws IOException {
+		byte[] bytes = new byte[in.readInt()];
+		in.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,34 @@
+package com.entopix.maui.util;
+
+import java.util.List;
+
+/**
+ * The topics extracted from a document within a time limit, and whether
+ * the extraction was cut short to meet it, in which case the topics are the
+ * best of the candidates that could be processed.
+ *
+ * @author zelandiya
+ *
+ */
+public class ExtractionResult {
+
+	private final List<Topic> topics;
+	private final boolean truncated;
+
+	public ExtractionResult(List<Topic> topics, boolean truncated) {
+		this.topics = topics;
+		this.truncated = truncated;
+	}
+
+	public List<Topic> getTopics() {
+		return topics;
+	}
+
+	/**
+	 * Returns true if part of the text or of its candidates was left out
+	 * because the time ran out or the extraction was interrupted.
+	 */
+	public boolean isTruncated() {
+		return truncated;
+	}
+}
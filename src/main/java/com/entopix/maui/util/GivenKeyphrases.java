@@ -0,0 +1,62 @@
+package com.entopix.maui.util;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The topics assigned manually to a document, normalized as the names of
+ * its candidates: as pseudo phrases in free indexing, or as the terms of
+ * the vocabulary. Each topic has a count, the number of indexers that
+ * assigned it if the list gives it, and 1 otherwise.
+ * <br>
+ * Instances are immutable, so that a document's topics can be parsed once
+ * and shared between threads.
+ *
+ * @author zelandiya
+ *
+ */
+public final class GivenKeyphrases {
+
+	private final HashMap<String, Integer> counts;
+
+	/**
+	 * Creates the topics from their counts, which are copied.
+	 */
+	public GivenKeyphrases(Map<String, Counter> keyphrases) {
+		counts = new HashMap<String, Integer>();
+		for (Map.Entry<String, Counter> entry : keyphrases.entrySet()) {
+			counts.put(entry.getKey(), entry.getValue().value());
+		}
+	}
+
+	/**
+	 * Returns true if the topic with the given name has been assigned.
+	 */
+	public boolean contains(String name) {
+		return counts.containsKey(name);
+	}
+
+	/**
+	 * Returns the count of a topic, or 0 if it has not been assigned.
+	 */
+	public int getCount(String name) {
+		Integer count = counts.get(name);
+		return count == null ? 0 : count;
+	}
+
+	/**
+	 * Returns the names of the topics.
+	 */
+	public Set<String> getNames() {
+		return Collections.unmodifiableSet(counts.keySet());
+	}
+
+	/**
+	 * Returns the number of topics.
+	 */
+	public int size() {
+		return counts.size();
+	}
+}
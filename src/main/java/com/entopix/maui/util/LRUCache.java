@@ -0,0 +1,198 @@
+package com.entopix.maui.util;
+
+import java.io.Serializable;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A thread-safe cache that holds at most a given number of entries, and
+ * evicts the least recently used ones when it is full.
+ * <br>
+ * The entries are split into segments by the hash code of their keys,
+ * and each segment is locked separately, so that threads using different
+ * keys rarely wait for each other. The eviction order is kept per segment.
+ * <br>
+ * The numbers of hits, misses and evictions are counted, so that the size
+ * of the cache can be tuned.
+ *
+ * @author zelandiya
+ *
+ */
+public class LRUCache<K, V> implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	/** Number of segments for large caches */
+	private static final int MAX_SEGMENTS = 16;
+
+	/** Maximum number of entries */
+	private final int maxSize;
+
+	private final Segment<K, V>[] segments;
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+
+	/**
+	 * Creates a cache holding at most maxSize entries.
+	 */
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	public LRUCache(int maxSize) {
+		if (maxSize < 1) {
+			throw new IllegalArgumentException("Cache size must be positive: " + maxSize);
+		}
+		this.maxSize = maxSize;
+
+		// small caches are not split, so that no space is wasted
+		int numSegments = 1;
+		while (numSegments < MAX_SEGMENTS && numSegments * 64 <= maxSize) {
+			numSegments *= 2;
+		}
+		segments = new Segment[numSegments];
+		for (int i = 0; i < numSegments; i++) {
+			int segmentSize = maxSize / numSegments;
+			if (i < maxSize % numSegments) {
+				segmentSize++;
+			}
+			segments[i] = new Segment<K, V>(segmentSize, evictions);
+		}
+	}
+
+	/**
+	 * Returns the value cached for the key, or null if there is none.
+	 */
+	public V get(K key) {
+		Segment<K, V> segment = segmentFor(key);
+		V value;
+		synchronized (segment) {
+			value = segment.get(key);
+		}
+		if (value == null) {
+			misses.incrementAndGet();
+		} else {
+			hits.incrementAndGet();
+		}
+		return value;
+	}
+
+	/**
+	 * Caches the value for the key, evicting the least recently used
+	 * entry if the cache is full.
+	 */
+	public void put(K key, V value) {
+		Segment<K, V> segment = segmentFor(key);
+		synchronized (segment) {
+			segment.put(key, value);
+		}
+	}
+
+	/**
+	 * Removes the entry for the key, if there is one.
+	 */
+	public void remove(K key) {
+		Segment<K, V> segment = segmentFor(key);
+		synchronized (segment) {
+			segment.remove(key);
+		}
+	}
+
+	/**
+	 * Removes all entries. The counters are not reset.
+	 */
+	public void clear() {
+		for (Segment<K, V> segment : segments) {
+			synchronized (segment) {
+				segment.clear();
+			}
+		}
+	}
+
+	/**
+	 * Returns the current number of entries.
+	 */
+	public int size() {
+		int size = 0;
+		for (Segment<K, V> segment : segments) {
+			synchronized (segment) {
+				size += segment.size();
+			}
+		}
+		return size;
+	}
+
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	public long getEvictions() {
+		return evictions.get();
+	}
+
+	/**
+	 * Returns the fraction of lookups that were hits, or 0 if there were none.
+	 */
+	public double getHitRate() {
+		long hitCount = hits.get();
+		long total = hitCount + misses.get();
+		if (total == 0) {
+			return 0.0;
+		}
+		return hitCount / (double) total;
+	}
+
+	/**
+	 * Resets the hit, miss and eviction counters.
+	 */
+	public void resetStatistics() {
+		hits.set(0);
+		misses.set(0);
+		evictions.set(0);
+	}
+
+	public String toString() {
+		return "size=" + size() + "/" + maxSize + ", hits=" + getHits()
+				+ ", misses=" + getMisses() + ", evictions=" + getEvictions();
+	}
+
+	private Segment<K, V> segmentFor(K key) {
+		int hash = key.hashCode();
+		hash ^= (hash >>> 16);
+		return segments[hash & (segments.length - 1)];
+	}
+
+	/**
+	 * Part of the cache, ordered from least to most recently used.
+	 */
+	private static class Segment<K, V> extends LinkedHashMap<K, V> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final int maxSize;
+
+		private final AtomicLong evictions;
+
+		Segment(int maxSize, AtomicLong evictions) {
+			super(16, 0.75f, true);
+			this.maxSize = maxSize;
+			this.evictions = evictions;
+		}
+
+		protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+			if (size() > maxSize) {
+				evictions.incrementAndGet();
+				return true;
+			}
+			return false;
+		}
+	}
+}
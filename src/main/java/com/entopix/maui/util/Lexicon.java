@@ -0,0 +1,333 @@
+package com.entopix.maui.util;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import com.entopix.maui.stemmers.Stemmer;
+
+/**
+ * Maps the words seen in documents to int ids, and each word to the id of
+ * its stem. The lower case version and the stem of a word are therefore
+ * computed only once, when the word is seen for the first time.
+ * <br>
+ * Stems are computed the same way as in MauiFilter.pseudoPhrase: the word is
+ * lower cased, everything after an apostrophe is removed, and the result is
+ * stemmed.
+ * <br>
+ * The lexicon built during training is saved with the model and frozen.
+ * To look up new words at extraction time, a per-document extension is
+ * created with extend(), which assigns ids to unseen words after those of
+ * the model, and is discarded or cleared after the document is processed.
+ * A frozen lexicon is never modified and can be shared between threads.
+ *
+ * @author zelandiya
+ *
+ */
+public class Lexicon implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	/** Stemmer used to compute the stems */
+	private final Stemmer stemmer;
+
+	/** Lexicon that is extended by this one, or null */
+	private final Lexicon parent;
+
+	/** Id of the first word, and of the first stem in this lexicon */
+	private final int firstWordId;
+	private final int firstStemId;
+
+	/** Words, their lower case versions and the ids of their stems */
+	private String[] words;
+	private String[] lowerCaseWords;
+	private int[] stemIds;
+	private int numWords = 0;
+
+	/** Stems */
+	private String[] stems;
+	private int numStems = 0;
+
+	/** If true, no words are added to this lexicon anymore */
+	private boolean frozen = false;
+
+	/** Hash slots for words, containing word index + 1, or 0 if empty */
+	private transient int[] slots;
+
+	/** Index of stem ids */
+	private transient HashMap<String, Integer> stemIndex;
+
+	/**
+	 * Creates an empty lexicon that uses the given stemmer.
+	 */
+	public Lexicon(Stemmer stemmer) {
+		this(stemmer, null, 1024);
+	}
+
+	private Lexicon(Stemmer stemmer, Lexicon parent, int capacity) {
+		this.stemmer = stemmer;
+		this.parent = parent;
+		this.firstWordId = parent == null ? 0 : parent.firstWordId + parent.numWords;
+		this.firstStemId = parent == null ? 0 : parent.firstStemId + parent.numStems;
+		words = new String[capacity];
+		lowerCaseWords = new String[capacity];
+		stemIds = new int[capacity];
+		stems = new String[capacity];
+		slots = new int[capacity * 2];
+		stemIndex = new HashMap<String, Integer>();
+	}
+
+	/**
+	 * Returns the stemmer used by this lexicon.
+	 */
+	public Stemmer getStemmer() {
+		return stemmer;
+	}
+
+	/**
+	 * Stops adding words to this lexicon. Unseen words can then
+	 * only be added to an extension of it.
+	 */
+	public void freeze() {
+		if (frozen) {
+			return;
+		}
+		frozen = true;
+
+		// no more words are added, so the arrays can be trimmed
+		words = Arrays.copyOf(words, numWords);
+		lowerCaseWords = Arrays.copyOf(lowerCaseWords, numWords);
+		stemIds = Arrays.copyOf(stemIds, numWords);
+		stems = Arrays.copyOf(stems, numStems);
+		rehash();
+	}
+
+	public boolean isFrozen() {
+		return frozen;
+	}
+
+	/**
+	 * Returns a new lexicon that contains all words of this one,
+	 * and to which unseen words are added.
+	 */
+	public Lexicon extend() {
+		return new Lexicon(stemmer, this, 64);
+	}
+
+	/**
+	 * Returns a new lexicon like extend(), which stems unseen words with
+	 * the given stemmer instead. It has to compute the same stems as the
+	 * stemmer of this lexicon, e.g. wrap it into a CachingStemmer.
+	 */
+	public Lexicon extend(Stemmer stemmer) {
+		return new Lexicon(stemmer, this, 64);
+	}
+
+	/**
+	 * Returns true if this lexicon was created by extend() on the given one.
+	 */
+	public boolean isExtensionOf(Lexicon lexicon) {
+		return parent == lexicon;
+	}
+
+	/**
+	 * Removes the words added to this extension, keeping the allocated
+	 * space, so that it can be used for another document. The ids given
+	 * out before are no longer valid.
+	 */
+	public void clear() {
+		if (parent == null) {
+			throw new IllegalStateException("Only an extension of a lexicon can be cleared");
+		}
+		Arrays.fill(words, 0, numWords, null);
+		Arrays.fill(lowerCaseWords, 0, numWords, null);
+		Arrays.fill(stems, 0, numStems, null);
+		Arrays.fill(slots, 0);
+		stemIndex.clear();
+		numWords = 0;
+		numStems = 0;
+	}
+
+	/**
+	 * Total number of words, including those of the extended lexicon.
+	 */
+	public int size() {
+		return firstWordId + numWords;
+	}
+
+	/**
+	 * Returns the id of the word given by the characters between start
+	 * (inclusive) and end (exclusive) in the text. If the word is not in
+	 * the lexicon, it is added, unless the lexicon is frozen, in which
+	 * case -1 is returned.
+	 */
+	public int getId(CharSequence text, int start, int end) {
+		int hash = 0;
+		for (int i = start; i < end; i++) {
+			hash = 31 * hash + text.charAt(i);
+		}
+		return getId(text, start, end, hash);
+	}
+
+	private int getId(CharSequence text, int start, int end, int hash) {
+		if (parent != null) {
+			int id = parent.getId(text, start, end, hash);
+			if (id != -1) {
+				return id;
+			}
+		}
+
+		int mask = slots.length - 1;
+		int slot = spread(hash) & mask;
+		while (slots[slot] != 0) {
+			String word = words[slots[slot] - 1];
+			if (word.hashCode() == hash && matches(word, text, start, end)) {
+				return firstWordId + slots[slot] - 1;
+			}
+			slot = (slot + 1) & mask;
+		}
+
+		if (frozen) {
+			return -1;
+		}
+		return add(text.subSequence(start, end).toString());
+	}
+
+	/**
+	 * Returns the word with the given id.
+	 */
+	public String getWord(int id) {
+		if (id < firstWordId) {
+			return parent.getWord(id);
+		}
+		return words[id - firstWordId];
+	}
+
+	/**
+	 * Returns the lower case version of the word with the given id.
+	 */
+	public String getLowerCaseWord(int id) {
+		if (id < firstWordId) {
+			return parent.getLowerCaseWord(id);
+		}
+		return lowerCaseWords[id - firstWordId];
+	}
+
+	/**
+	 * Returns the id of the stem of the word with the given id.
+	 */
+	public int getStemId(int id) {
+		if (id < firstWordId) {
+			return parent.getStemId(id);
+		}
+		return stemIds[id - firstWordId];
+	}
+
+	/**
+	 * Returns the stem with the given stem id.
+	 */
+	public String getStem(int stemId) {
+		if (stemId < firstStemId) {
+			return parent.getStem(stemId);
+		}
+		return stems[stemId - firstStemId];
+	}
+
+	private int add(String word) {
+		if (numWords == words.length) {
+			int capacity = words.length * 2;
+			words = Arrays.copyOf(words, capacity);
+			lowerCaseWords = Arrays.copyOf(lowerCaseWords, capacity);
+			stemIds = Arrays.copyOf(stemIds, capacity);
+			rehash();
+		}
+
+		String lowerCaseWord = word.toLowerCase();
+
+		// remove all apostrophes
+		String stem = lowerCaseWord;
+		int apostr = stem.indexOf('\'');
+		if (apostr != -1) {
+			stem = stem.substring(0, apostr);
+		}
+		stem = stemmer.stem(stem);
+
+		int index = numWords++;
+		words[index] = word;
+		lowerCaseWords[index] = lowerCaseWord;
+		stemIds[index] = getStemId(stem);
+		insert(index);
+		return firstWordId + index;
+	}
+
+	private int getStemId(String stem) {
+		Lexicon lexicon = this;
+		while (lexicon != null) {
+			Integer stemId = lexicon.stemIndex.get(stem);
+			if (stemId != null) {
+				return stemId;
+			}
+			lexicon = lexicon.parent;
+		}
+
+		if (numStems == stems.length) {
+			stems = Arrays.copyOf(stems, stems.length * 2);
+		}
+		int stemId = firstStemId + numStems;
+		stems[numStems++] = stem;
+		stemIndex.put(stem, stemId);
+		return stemId;
+	}
+
+	private void rehash() {
+		int capacity = 2;
+		while (capacity < words.length * 2) {
+			capacity *= 2;
+		}
+		slots = new int[capacity];
+		for (int i = 0; i < numWords; i++) {
+			insert(i);
+		}
+	}
+
+	private void insert(int index) {
+		int mask = slots.length - 1;
+		int slot = spread(words[index].hashCode()) & mask;
+		while (slots[slot] != 0) {
+			slot = (slot + 1) & mask;
+		}
+		slots[slot] = index + 1;
+	}
+
+	private static boolean matches(String word, CharSequence text, int start, int end) {
+		if (word.length() != end - start) {
+			return false;
+		}
+		for (int i = 0; i < word.length(); i++) {
+			if (word.charAt(i) != text.charAt(start + i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static int spread(int hash) {
+		// the hashes of similar words, e.g. numbered ids, are close to each
+		// other, and would fill runs of adjacent slots without mixing
+		hash ^= (hash >>> 16);
+		hash *= 0x85ebca6b;
+		hash ^= (hash >>> 13);
+		return hash;
+	}
+
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		in.defaultReadObject();
+		rehash();
+		stemIndex = new HashMap<String, Integer>();
+		for (int i = 0; i < numStems; i++) {
+			stemIndex.put(stems[i], firstStemId + i);
+		}
+	}
+}
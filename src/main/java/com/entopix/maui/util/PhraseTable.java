@@ -0,0 +1,138 @@
+package com.entopix.maui.util;
+
+import java.util.Arrays;
+
+/**
+ * A hash table of short sequences of ints, e.g. the token ids of an n-gram.
+ * All keys are stored in a single flat array, so adding and looking up a
+ * key does not create any objects. Each key gets an index, starting with 0
+ * for the first key added, which can be used to store values in arrays.
+ *
+ * @author zelandiya
+ *
+ */
+public class PhraseTable {
+
+	/** All keys, one after the other */
+	private int[] keys = new int[256];
+
+	/** Number of used positions in keys */
+	private int keysLength = 0;
+
+	/** Start and length of each key in keys */
+	private int[] keyStart = new int[64];
+	private int[] keyLength = new int[64];
+	private int[] keyHash = new int[64];
+
+	/** Hash slots, containing key index + 1, or 0 if empty */
+	private int[] slots = new int[128];
+
+	/** Number of keys */
+	private int size = 0;
+
+	/**
+	 * Returns the number of keys in the table.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Removes all keys, keeping the allocated space.
+	 */
+	public void clear() {
+		Arrays.fill(slots, 0);
+		keysLength = 0;
+		size = 0;
+	}
+
+	/**
+	 * Returns the index of the given key, or -1 if it is not in the table.
+	 *
+	 * @param key array with the key
+	 * @param length number of ints in the array that belong to the key
+	 */
+	public int get(int[] key, int length) {
+		int hash = hash(key, length);
+		int mask = slots.length - 1;
+		int slot = hash & mask;
+		while (slots[slot] != 0) {
+			int index = slots[slot] - 1;
+			if (keyHash[index] == hash && equals(index, key, length)) {
+				return index;
+			}
+			slot = (slot + 1) & mask;
+		}
+		return -1;
+	}
+
+	/**
+	 * Adds a key that is not yet in the table and returns its index.
+	 *
+	 * @param key array with the key
+	 * @param length number of ints in the array that belong to the key
+	 */
+	public int add(int[] key, int length) {
+		if (size == keyStart.length) {
+			keyStart = Arrays.copyOf(keyStart, size * 2);
+			keyLength = Arrays.copyOf(keyLength, size * 2);
+			keyHash = Arrays.copyOf(keyHash, size * 2);
+		}
+		if (keysLength + length > keys.length) {
+			keys = Arrays.copyOf(keys, Math.max(keys.length * 2, keysLength + length));
+		}
+		if ((size + 1) * 2 > slots.length) {
+			rehash(slots.length * 2);
+		}
+
+		int index = size++;
+		System.arraycopy(key, 0, keys, keysLength, length);
+		keyStart[index] = keysLength;
+		keyLength[index] = length;
+		keyHash[index] = hash(key, length);
+		keysLength += length;
+		insert(index);
+		return index;
+	}
+
+	private boolean equals(int index, int[] key, int length) {
+		if (keyLength[index] != length) {
+			return false;
+		}
+		int start = keyStart[index];
+		for (int i = 0; i < length; i++) {
+			if (keys[start + i] != key[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private void insert(int index) {
+		int mask = slots.length - 1;
+		int slot = keyHash[index] & mask;
+		while (slots[slot] != 0) {
+			slot = (slot + 1) & mask;
+		}
+		slots[slot] = index + 1;
+	}
+
+	private void rehash(int capacity) {
+		slots = new int[capacity];
+		for (int i = 0; i < size; i++) {
+			insert(i);
+		}
+	}
+
+	private static int hash(int[] key, int length) {
+		int hash = length;
+		for (int i = 0; i < length; i++) {
+			hash = hash * 31 + key[i];
+		}
+		// spread the bits, as the slots are selected by the lowest ones
+		hash ^= (hash >>> 16);
+		hash *= 0x85ebca6b;
+		hash ^= (hash >>> 13);
+		return hash;
+	}
+}
@@ -1,5 +1,8 @@
 package com.entopix.maui.util;
 
+import java.util.LinkedHashMap;
+import java.util.Map;
+
 /**
  * Object to store the individual topic extracted from a document.
  * A topic is a generic word for keyword, tag, index term, category etc.
@@ -13,6 +16,7 @@ public class Topic {
 	private String id;
 	private double probability;
 	private boolean correct;
+	private Map<String, Double> features;
 	
 	public Topic(String title) {
 		this.title = title;
@@ -23,6 +27,22 @@ public class Topic {
 		this.probability = probability;
 		this.id = id;
 	}
+
+	public Topic(String title, String id, double probability, Map<String, Double> features) {
+		this(title, id, probability);
+		this.features = features;
+	}
+
+	/**
+	 * Creates a copy of a topic, with its own copy of the features.
+	 */
+	public Topic(Topic topic) {
+		this(topic.title, topic.id, topic.probability);
+		this.correct = topic.correct;
+		if (topic.features != null) {
+			this.features = new LinkedHashMap<String, Double>(topic.features);
+		}
+	}
 	
 	public boolean isCorrect() {
 		return this.correct;
@@ -43,4 +63,12 @@ public class Topic {
 	public String getId() {
 		return this.id;
 	}
+
+	/**
+	 * Returns the values of the features the probability was computed
+	 * from, by feature name, or null if they are not known.
+	 */
+	public Map<String, Double> getFeatures() {
+		return this.features;
+	}
 }
@@ -0,0 +1,343 @@
+package com.entopix.maui.util;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A thread-safe cache of the topics extracted from texts, so that a text
+ * submitted again is not processed again.
+ * <br>
+ * The texts are not stored: an entry is found by a 128-bit hash of the
+ * text, its length, the number of topics requested and the owner that
+ * extracted them, e.g. a MauiWrapper, so that owners with different models
+ * can share a cache without getting each other's topics. The cache is bounded
+ * both by the number of entries and by their weight, which is the number of
+ * topics they hold plus one, and evicts the least recently used entries
+ * first. Entries can also expire a given time after they were cached.
+ * <br>
+ * Topics are copied when they are cached and when they are returned, as
+ * they can be changed, so callers never share them.
+ * <br>
+ * When the model or the vocabulary of an owner changes, invalidateAll()
+ * must be called, which removes the topics of all owners. Topics extracted
+ * before that call and cached after it are ignored.
+ *
+ * @author zelandiya
+ *
+ */
+public class TopicCache {
+
+	/** Maximum number of entries */
+	private final int maxEntries;
+
+	/** Maximum total weight of the entries */
+	private final long maxWeight;
+
+	/** Time after which entries expire, or 0 if they never do */
+	private final long timeToLiveNanos;
+
+	/** Entries, from least to most recently used */
+	private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<Key, Entry>(16, 0.75f, true);
+
+	private long weight = 0;
+
+	/** Incremented by each invalidation */
+	private int generation = 0;
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+	private final AtomicLong expirations = new AtomicLong();
+	private final AtomicLong invalidations = new AtomicLong();
+
+	/**
+	 * Creates a cache.
+	 *
+	 * @param maxEntries maximum number of texts
+	 * @param maxWeight maximum number of topics of all texts, each text
+	 * counting for one more
+	 * @param timeToLiveMillis time after which the topics of a text are
+	 * extracted again, or 0 to keep them until they are evicted
+	 */
+	public TopicCache(int maxEntries, long maxWeight, long timeToLiveMillis) {
+		if (maxEntries < 1 || maxWeight < 1) {
+			throw new IllegalArgumentException("Cache size and weight must be positive: "
+					+ maxEntries + ", " + maxWeight);
+		}
+		if (timeToLiveMillis < 0) {
+			throw new IllegalArgumentException("Time to live must not be negative: " + timeToLiveMillis);
+		}
+		this.maxEntries = maxEntries;
+		this.maxWeight = maxWeight;
+		this.timeToLiveNanos = timeToLiveMillis * 1000000L;
+	}
+
+	/**
+	 * Returns the key of a text and number of topics, for a cache that is
+	 * used by a single owner.
+	 */
+	public static Key key(CharSequence text, int topN) {
+		return new Key(0, text, topN);
+	}
+
+	/**
+	 * Returns the key of a text and number of topics extracted by the
+	 * given owner. Owners that extract topics differently, e.g. with
+	 * different models, must use different ids.
+	 */
+	public static Key key(long owner, CharSequence text, int topN) {
+		return new Key(owner, text, topN);
+	}
+
+	/**
+	 * Returns the current generation, which has to be passed to put() with
+	 * the topics extracted after this call.
+	 */
+	public synchronized int getGeneration() {
+		return generation;
+	}
+
+	/**
+	 * Returns copies of the topics cached for the key, or null if there are
+	 * none or they have expired.
+	 */
+	public List<Topic> get(Key key) {
+		List<Topic> topics = null;
+		synchronized (this) {
+			Entry entry = entries.get(key);
+			if (entry != null) {
+				if (isExpired(entry, System.nanoTime())) {
+					remove(key, entry);
+					expirations.incrementAndGet();
+				} else {
+					topics = entry.topics;
+				}
+			}
+		}
+		if (topics == null) {
+			misses.incrementAndGet();
+			return null;
+		}
+		hits.incrementAndGet();
+		return copy(topics);
+	}
+
+	private static List<Topic> copy(List<Topic> topics) {
+		ArrayList<Topic> copy = new ArrayList<Topic>(topics.size());
+		for (Topic topic : topics) {
+			copy.add(new Topic(topic));
+		}
+		return copy;
+	}
+
+	/**
+	 * Caches the topics for the key, unless the cache has been invalidated
+	 * since the given generation. The least recently used entries are
+	 * evicted until the cache is within its bounds.
+	 */
+	public synchronized void put(Key key, int generation, List<Topic> topics) {
+		if (generation != this.generation) {
+			return;
+		}
+		Entry entry = new Entry(copy(topics), System.nanoTime());
+		if (entry.weight() > maxWeight) {
+			return;
+		}
+		Entry old = entries.put(key, entry);
+		if (old != null) {
+			weight -= old.weight();
+		}
+		weight += entry.weight();
+
+		Iterator<Map.Entry<Key, Entry>> iterator = entries.entrySet().iterator();
+		while (entries.size() > maxEntries || weight > maxWeight) {
+			Entry eldest = iterator.next().getValue();
+			iterator.remove();
+			weight -= eldest.weight();
+			evictions.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Removes all entries, and ignores the topics extracted before this
+	 * call that are cached later. The counters are not reset.
+	 */
+	public synchronized void invalidateAll() {
+		generation++;
+		entries.clear();
+		weight = 0;
+		invalidations.incrementAndGet();
+	}
+
+	/**
+	 * Removes the expired entries.
+	 */
+	public synchronized void removeExpired() {
+		long now = System.nanoTime();
+		Iterator<Entry> iterator = entries.values().iterator();
+		while (iterator.hasNext()) {
+			Entry entry = iterator.next();
+			if (isExpired(entry, now)) {
+				iterator.remove();
+				weight -= entry.weight();
+				expirations.incrementAndGet();
+			}
+		}
+	}
+
+	/**
+	 * Returns the current number of entries.
+	 */
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	/**
+	 * Returns the current weight of the entries.
+	 */
+	public synchronized long getWeight() {
+		return weight;
+	}
+
+	public int getMaxEntries() {
+		return maxEntries;
+	}
+
+	public long getMaxWeight() {
+		return maxWeight;
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	public long getEvictions() {
+		return evictions.get();
+	}
+
+	public long getExpirations() {
+		return expirations.get();
+	}
+
+	public long getInvalidations() {
+		return invalidations.get();
+	}
+
+	/**
+	 * Returns the fraction of lookups that were hits, or 0 if there were none.
+	 */
+	public double getHitRate() {
+		long hitCount = hits.get();
+		long total = hitCount + misses.get();
+		if (total == 0) {
+			return 0.0;
+		}
+		return hitCount / (double) total;
+	}
+
+	/**
+	 * Resets the hit, miss, eviction, expiration and invalidation counters.
+	 */
+	public void resetStatistics() {
+		hits.set(0);
+		misses.set(0);
+		evictions.set(0);
+		expirations.set(0);
+		invalidations.set(0);
+	}
+
+	public String toString() {
+		return "size=" + size() + "/" + maxEntries + ", weight=" + getWeight() + "/" + maxWeight
+				+ ", hits=" + getHits() + ", misses=" + getMisses() + ", evictions=" + getEvictions()
+				+ ", expirations=" + getExpirations() + ", invalidations=" + getInvalidations();
+	}
+
+	private boolean isExpired(Entry entry, long now) {
+		return timeToLiveNanos > 0 && now - entry.created >= timeToLiveNanos;
+	}
+
+	private void remove(Key key, Entry entry) {
+		entries.remove(key);
+		weight -= entry.weight();
+	}
+
+	/**
+	 * Identifies a text and a number of topics, by two 64-bit hashes of
+	 * the text that are computed independently.
+	 */
+	public static final class Key {
+
+		private final long owner;
+		private final long hash1;
+		private final long hash2;
+		private final int length;
+		private final int topN;
+
+		private Key(long owner, CharSequence text, int topN) {
+			long h1 = 0xcbf29ce484222325L;
+			long h2 = 0x9e3779b97f4a7c15L;
+			int n = text.length();
+			for (int i = 0; i < n; i++) {
+				char c = text.charAt(i);
+				// FNV-1a, and a multiply-rotate hash
+				h1 = (h1 ^ c) * 0x100000001b3L;
+				h2 = Long.rotateLeft((h2 + c) * 0xc2b2ae3d27d4eb4fL, 31);
+			}
+			this.owner = owner;
+			this.hash1 = mix(h1);
+			this.hash2 = mix(h2 ^ n);
+			this.length = n;
+			this.topN = topN;
+		}
+
+		private static long mix(long h) {
+			h ^= (h >>> 33);
+			h *= 0xff51afd7ed558ccdL;
+			h ^= (h >>> 33);
+			h *= 0xc4ceb9fe1a85ec53L;
+			h ^= (h >>> 33);
+			return h;
+		}
+
+		@Override
+		public int hashCode() {
+			return (int) hash1 ^ (int) (hash1 >>> 32) ^ (int) owner;
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			if (!(other instanceof Key)) {
+				return false;
+			}
+			Key key = (Key) other;
+			return hash1 == key.hash1 && hash2 == key.hash2
+					&& length == key.length && topN == key.topN && owner == key.owner;
+		}
+	}
+
+	/**
+	 * Topics of a text, and when they were cached.
+	 */
+	private static final class Entry {
+
+		final List<Topic> topics;
+		final long created;
+
+		Entry(List<Topic> topics, long created) {
+			this.topics = topics;
+			this.created = created;
+		}
+
+		long weight() {
+			return topics.size() + 1;
+		}
+	}
+}
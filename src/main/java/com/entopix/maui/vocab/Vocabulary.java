@@ -12,6 +12,7 @@ import java.util.zip.GZIPInputStream;
 
 import com.entopix.maui.stemmers.Stemmer;
 import com.entopix.maui.stopwords.Stopwords;
+import com.entopix.maui.util.LRUCache;
 
 import com.hp.hpl.jena.rdf.model.Model;
 import com.hp.hpl.jena.rdf.model.ModelFactory;
@@ -67,6 +68,15 @@ public class Vocabulary {
 	/** Normalization via alphabetic reordering - default true*/
 	private boolean reorder = true;
 	private boolean serialize = false;
+	/** Cache of normalized phrases, or null if they are not cached */
+	private LRUCache<String, String> normalizationCache = null;
+	/** Trie of the normalized phrases, built when the vocabulary is loaded */
+	private VocabularyMatcher matcher = null;
+	/** Words of documents as seen by the matcher */
+	private LRUCache<String, VocabularyMatcher.Word> matcherWords =
+			new LRUCache<String, VocabularyMatcher.Word>(100000);
+	/** Token of a word that the matcher cannot normalize word by word */
+	private static final int LOOKUP = -3;
 
 
 	/** Initializes vocabulary from a file path
@@ -88,6 +98,7 @@ public class Vocabulary {
 	public void initializeVocabulary(String vocabularyName, String vocabularyFormat) {
 
 		this.vocabularyName = vocabularyName;
+		clearNormalizationCache();
 
 		if (vocabularyFormat.equals("skos")) {
 
@@ -134,7 +145,7 @@ public class Vocabulary {
 			throw new RuntimeException(vocabularyFormat
 					+ " is an unsupported vocabulary format! Use skos or text");
 		}
-
+		buildMatcher();
 	}
 
 
@@ -146,8 +157,10 @@ public class Vocabulary {
 	 * */
 	public void initializeVocabulary(String vocabularyName, Model model) throws VocabularyException {
 		this.vocabularyName = vocabularyName;
+		clearNormalizationCache();
 		if (model != null) {
 			initializeFromModel(model);
+			buildMatcher();
 		} else {
 			throw new VocabularyException("Model can't be null!");
 		}
@@ -165,18 +178,27 @@ public class Vocabulary {
 
 	public void setLowerCase(boolean toLowerCase) {
 		this.toLowerCase = toLowerCase;
+		clearNormalizationCache();
 	}
 
 	public void setReorder(boolean reorder) {
 		this.reorder = reorder;
+		clearNormalizationCache();
 	}
 
 	public void setStemmer(Stemmer stemmer) {
 		this.stemmer = stemmer;
+		clearNormalizationCache();
+	}
+
+	public Stemmer getStemmer() {
+		return stemmer;
 	}
 
 	public void setVocabularyStore(VocabularyStore store) {
 		vocabStore = store;
+		matcher = null;
+		matcherWords.clear();
 	}
 
 	public void setSerialize(boolean serialize) {
@@ -415,6 +437,126 @@ public class Vocabulary {
 	 */
 	public void setStopwords(Stopwords stopwords) {
 		this.stopwords = stopwords;
+		clearNormalizationCache();
+	}
+
+	/**
+	 * Caches the normalized forms of up to maxSize phrases, so that they
+	 * are not recomputed each time the same phrase is looked up.
+	 * Use 0 to disable caching.
+	 *
+	 * @param maxSize maximum number of cached phrases
+	 */
+	public void setNormalizationCacheSize(int maxSize) {
+		if (maxSize > 0) {
+			normalizationCache = new LRUCache<String, String>(maxSize);
+		} else {
+			normalizationCache = null;
+		}
+	}
+
+	/**
+	 * Returns the cache of normalized phrases, with its hit, miss and
+	 * eviction counts, or null if normalized phrases are not cached.
+	 */
+	public LRUCache<String, String> getNormalizationCache() {
+		return normalizationCache;
+	}
+
+	private void clearNormalizationCache() {
+		if (normalizationCache != null) {
+			normalizationCache.clear();
+		}
+		matcherWords.clear();
+	}
+
+	/**
+	 * Builds the matcher from the normalized phrases in the vocabulary store.
+	 */
+	private synchronized void buildMatcher() {
+		matcher = null;
+		matcherWords.clear();
+		if (vocabStore == null || vocabStore.getPhrases() == null) {
+			return;
+		}
+		matcher = new VocabularyMatcher(vocabStore.getPhrases());
+	}
+
+	/**
+	 * Returns the matcher that finds the windows of words that can be
+	 * vocabulary terms, or null if the vocabulary store cannot list its
+	 * phrases.
+	 */
+	public synchronized VocabularyMatcher getMatcher() {
+		if (matcher == null) {
+			buildMatcher();
+		}
+		return matcher;
+	}
+
+	/**
+	 * Returns a word of a document as seen by the matcher, i.e. the tokens
+	 * it is normalized to by normalizePhrase().
+	 */
+	public VocabularyMatcher.Word getMatcherWord(String word) {
+		VocabularyMatcher.Word matcherWord = matcherWords.get(word);
+		if (matcherWord == null) {
+			matcherWord = computeMatcherWord(word);
+			matcherWords.put(word, matcherWord);
+		}
+		return matcherWord;
+	}
+
+	private VocabularyMatcher.Word computeMatcherWord(String word) {
+		if (word.length() == 0 || word.endsWith("-")) {
+			return new VocabularyMatcher.Word();
+		}
+		int upper = 0;
+		int lower = 0;
+		for (int i = 0; i < word.length(); i++) {
+			char c = word.charAt(i);
+			// these characters are handled for the whole phrase
+			// in normalizePhrase()
+			if (c == '&' || c == '.' || c == '*' || c == ':' || c == '/' || c <= ' ') {
+				return new VocabularyMatcher.Word();
+			}
+			if (Character.isLowerCase(c)) {
+				lower++;
+			}
+			if (Character.isUpperCase(c)) {
+				upper++;
+			}
+		}
+
+		int originalToken = getMatcherToken(word);
+		int lowerCaseToken = toLowerCase ? getMatcherToken(word.toLowerCase()) : originalToken;
+		if (originalToken == LOOKUP || lowerCaseToken == LOOKUP) {
+			return new VocabularyMatcher.Word();
+		}
+		return new VocabularyMatcher.Word(lowerCaseToken, originalToken, upper, lower);
+	}
+
+	/**
+	 * Normalizes a single word the same way as pseudoPhrase(), and returns
+	 * the id of the result in the matcher.
+	 */
+	private int getMatcherToken(String word) {
+		if (reorder || stopwords != null || stemmer != null) {
+			if (stopwords != null && stopwords.isStopword(word)) {
+				return VocabularyMatcher.STOPWORD;
+			}
+			int apostr = word.indexOf('\'');
+			if (apostr != -1 && apostr == word.length() - 2) {
+				word = word.substring(0, apostr);
+			}
+			if (stemmer != null) {
+				word = stemmer.stem(word);
+			}
+		}
+		if (word.length() == 0 || word.indexOf(' ') != -1) {
+			return LOOKUP;
+		}
+		return getMatcher().getTokenId(word);
 	}
 
 	private Relation getRelationForString(String rel) {
@@ -631,8 +773,22 @@ public class Vocabulary {
 	 * A pseudo phrase is a version of a phrase
 	 * that only contains non-stopwords,
 	 * which are stemmed and sorted into alphabetical order.
+	 * The result is cached if setNormalizationCacheSize has been called.
 	 */
 	public String normalizePhrase(String phrase) {
+		LRUCache<String, String> cache = normalizationCache;
+		if (cache == null) {
+			return computeNormalizedPhrase(phrase);
+		}
+		String normalized = cache.get(phrase);
+		if (normalized == null) {
+			normalized = computeNormalizedPhrase(phrase);
+			cache.put(phrase, normalized);
+		}
+		return normalized;
+	}
+
+	private String computeNormalizedPhrase(String phrase) {
 
 		String orig = phrase;
 		if (orig.endsWith("-") || orig.endsWith(".")) {
@@ -733,6 +889,7 @@ public class Vocabulary {
 
 	public void setVocabularyName(String vocabularyName) {
 		this.vocabularyName = vocabularyName;	
+		clearNormalizationCache();
 	}
 
 	public class VocabularyException extends Exception {
@@ -0,0 +1,293 @@
+package com.entopix.maui.vocab;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+
+import com.entopix.maui.util.PhraseTable;
+
+/**
+ * Finds the word windows of a document that can be vocabulary terms,
+ * without normalizing each window separately.
+ * <br>
+ * The normalized phrases of the vocabulary (the stemmed, reordered labels)
+ * are split into their stems, and all orderings of these stems are stored
+ * in a trie, since the words of a term can appear in any order in the text.
+ * A window is extended word by word, following the stems of its words in
+ * the trie. Once the trie has no continuation for them, no longer window
+ * starting at the same word can be a term, and the window is dead.
+ * <br>
+ * Windows that reach the end of a vocabulary phrase may be terms, and are
+ * looked up with Vocabulary.getSenses(), so the senses found are exactly
+ * the same as without the matcher. Words that normalizePhrase does not
+ * handle word by word (e.g. containing '&amp;' or '.') make a window always
+ * be looked up.
+ *
+ * @author zelandiya
+ *
+ */
+public class VocabularyMatcher {
+
+	/** Maximum number of stems of a phrase stored in the trie */
+	public static final int MAX_WORDS = 6;
+
+	/** Token of a word that is a stopword */
+	public static final int STOPWORD = -2;
+
+	/** Token of a word that is not part of any phrase */
+	public static final int UNKNOWN = -1;
+
+	/** Ids of all stems that occur in vocabulary phrases */
+	private final HashMap<String, Integer> tokenIds = new HashMap<String, Integer>();
+
+	/** Children of trie nodes, keyed by parent node and token id */
+	private final PhraseTable children = new PhraseTable();
+
+	/** Whether a trie node ends a phrase, indexed by node */
+	private boolean[] isPhrase = new boolean[1024];
+
+	/** Number of stems of the longest phrase */
+	private int longestPhrase = 0;
+
+	/**
+	 * Builds the trie for the given normalized phrases.
+	 */
+	public VocabularyMatcher(Collection<String> phrases) {
+		int[] tokens = new int[MAX_WORDS];
+		for (String phrase : phrases) {
+			String[] stems = phrase.split(" ");
+			longestPhrase = Math.max(longestPhrase, stems.length);
+			if (stems.length > MAX_WORDS) {
+				continue;
+			}
+			for (int i = 0; i < stems.length; i++) {
+				Integer id = tokenIds.get(stems[i]);
+				if (id == null) {
+					id = tokenIds.size();
+					tokenIds.put(stems[i], id);
+				}
+				tokens[i] = id;
+			}
+			Arrays.sort(tokens, 0, stems.length);
+			do {
+				addPhrase(tokens, stems.length);
+			} while (nextPermutation(tokens, stems.length));
+		}
+	}
+
+	/**
+	 * Returns the id of a stem, or UNKNOWN if no phrase contains it.
+	 */
+	public int getTokenId(String stem) {
+		Integer id = tokenIds.get(stem);
+		if (id == null) {
+			return UNKNOWN;
+		}
+		return id;
+	}
+
+	/**
+	 * Returns a new window, which is empty until its first word is added.
+	 */
+	public Window newWindow() {
+		return new Window();
+	}
+
+	private void addPhrase(int[] tokens, int length) {
+		int node = 0;
+		int[] edge = new int[2];
+		for (int i = 0; i < length; i++) {
+			edge[0] = node;
+			edge[1] = tokens[i];
+			int index = children.get(edge, 2);
+			if (index == -1) {
+				index = children.add(edge, 2);
+			}
+			node = index + 1;
+		}
+		if (node >= isPhrase.length) {
+			isPhrase = Arrays.copyOf(isPhrase, Math.max(isPhrase.length * 2, node + 1));
+		}
+		isPhrase[node] = true;
+	}
+
+	private int getChild(int node, int token, int[] edge) {
+		edge[0] = node;
+		edge[1] = token;
+		return children.get(edge, 2) + 1;
+	}
+
+	/**
+	 * Rearranges the tokens into the next larger ordering, and returns
+	 * false if they were already in the largest one.
+	 */
+	private static boolean nextPermutation(int[] tokens, int length) {
+		int i = length - 2;
+		while (i >= 0 && tokens[i] >= tokens[i + 1]) {
+			i--;
+		}
+		if (i < 0) {
+			return false;
+		}
+		int j = length - 1;
+		while (tokens[j] <= tokens[i]) {
+			j--;
+		}
+		int swap = tokens[i];
+		tokens[i] = tokens[j];
+		tokens[j] = swap;
+		for (int k = i + 1, l = length - 1; k < l; k++, l--) {
+			swap = tokens[k];
+			tokens[k] = tokens[l];
+			tokens[l] = swap;
+		}
+		return true;
+	}
+
+	/**
+	 * A word as seen by the matcher: its tokens if the phrase it appears in
+	 * is lower cased or not, and its numbers of upper and lower case
+	 * characters, which decide whether the phrase is lower cased.
+	 */
+	public static class Word {
+
+		/** Token ids, or STOPWORD, or UNKNOWN */
+		final int lowerCaseToken;
+		final int originalToken;
+
+		final int upperCount;
+		final int lowerCount;
+
+		/** If true, the word is not normalized word by word */
+		final boolean needsLookup;
+
+		public Word(int lowerCaseToken, int originalToken, int upperCount, int lowerCount) {
+			this.lowerCaseToken = lowerCaseToken;
+			this.originalToken = originalToken;
+			this.upperCount = upperCount;
+			this.lowerCount = lowerCount;
+			this.needsLookup = false;
+		}
+
+		/**
+		 * Creates a word that always requires the window to be looked up.
+		 */
+		public Word() {
+			this.lowerCaseToken = UNKNOWN;
+			this.originalToken = UNKNOWN;
+			this.upperCount = 0;
+			this.lowerCount = 0;
+			this.needsLookup = true;
+		}
+	}
+
+	/**
+	 * A window of consecutive words, followed in the trie both with lower
+	 * cased and with original words.
+	 */
+	public class Window {
+
+		private final int[] edge = new int[2];
+
+		/** Trie nodes reached, or -1 if no phrase continues the words */
+		private int lowerCaseNode;
+		private int originalNode;
+
+		/** Numbers of tokens followed, ignoring stopwords */
+		private int lowerCaseTokens;
+		private int originalTokens;
+
+		private int upperCount;
+		private int lowerCount;
+
+		private boolean needsLookup;
+
+		Window() {
+			clear();
+		}
+
+		/**
+		 * Empties the window, so that it starts with the next added word.
+		 */
+		public void clear() {
+			lowerCaseNode = 0;
+			originalNode = 0;
+			lowerCaseTokens = 0;
+			originalTokens = 0;
+			upperCount = 0;
+			lowerCount = 0;
+			needsLookup = false;
+		}
+
+		/**
+		 * Adds the next word of the text to the window.
+		 */
+		public void add(Word word) {
+			if (isDead()) {
+				return;
+			}
+			if (word.needsLookup) {
+				needsLookup = true;
+				return;
+			}
+			upperCount += word.upperCount;
+			lowerCount += word.lowerCount;
+			if (word.lowerCaseToken != STOPWORD) {
+				lowerCaseNode = follow(lowerCaseNode, ++lowerCaseTokens, word.lowerCaseToken);
+			}
+			if (word.originalToken != STOPWORD) {
+				originalNode = follow(originalNode, ++originalTokens, word.originalToken);
+			}
+		}
+
+		private int follow(int node, int numTokens, int token) {
+			if (node == -1 || needsLookup) {
+				return node;
+			}
+			if (numTokens > MAX_WORDS) {
+				// phrases this long are not in the trie
+				if (longestPhrase > MAX_WORDS) {
+					needsLookup = true;
+					return node;
+				}
+				return -1;
+			}
+			if (token == UNKNOWN) {
+				return -1;
+			}
+			int child = getChild(node, token, edge);
+			return child == 0 ? -1 : child;
+		}
+
+		/**
+		 * Returns true if neither this window nor any longer window
+		 * starting at the same word can be a vocabulary term.
+		 */
+		public boolean isDead() {
+			return !needsLookup && lowerCaseNode == -1 && originalNode == -1;
+		}
+
+		/**
+		 * Returns true if the words in the window can be a vocabulary term,
+		 * and the window has to be looked up.
+		 */
+		public boolean mayMatch() {
+			if (needsLookup) {
+				return true;
+			}
+			// the same rule as in Vocabulary.isOkToLower()
+			if (upperCount > lowerCount && upperCount < 5) {
+				return mayMatch(originalNode, originalTokens);
+			}
+			return mayMatch(lowerCaseNode, lowerCaseTokens);
+		}
+
+		private boolean mayMatch(int node, int numTokens) {
+			// phrases of stopwords only are not normalized
+			if (numTokens == 0) {
+				return true;
+			}
+			return node != -1 && node < isPhrase.length && isPhrase[node];
+		}
+	}
+}
@@ -2,6 +2,7 @@ package com.entopix.maui.vocab;
 
 
 import java.util.ArrayList;
+import java.util.Collection;
 
 /**
  *
@@ -57,4 +58,13 @@ public abstract class VocabularyStore {
     public abstract String getTerm(String id);
 
     public abstract ArrayList<String> getSensesForPhrase( String phrase );
+
+    /**
+     * Returns all normalized phrases that have senses,
+     * or null if the store cannot list them.
+     */
+    public Collection<String> getPhrases()
+    {
+        return null;
+    }
 }
@@ -5,6 +5,7 @@ import java.io.ObjectOutput;
 import java.io.ObjectInput;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -189,6 +190,10 @@ public class VocabularyStore_HT extends VocabularyStore implements Externalizabl
 		return results;
 	}
 
+	public Collection<String> getPhrases() {
+		return listsOfSenses.keySet();
+	}
+
 	public void writeExternal(ObjectOutput out) throws java.io.IOException {
 		// Write non-hashmap objects
 		out.writeUTF(conceptURIPrefix);
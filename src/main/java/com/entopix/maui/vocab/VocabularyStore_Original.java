@@ -1,6 +1,7 @@
 package com.entopix.maui.vocab;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -127,6 +128,10 @@ public class VocabularyStore_Original extends VocabularyStore implements Externa
 		return senses;
 	}
 
+	public Collection<String> getPhrases() {
+		return listsOfSenses.keySet();
+	}
+
 	public void writeExternal(ObjectOutput out) throws java.io.IOException {
 		/** reverse index : id --> descriptor */
 		out.writeInt(idTermIndex.size());
@@ -0,0 +1,269 @@
+package com.entopix.maui.filters;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.entopix.maui.main.MauiModelBuilder;
+import com.entopix.maui.util.Candidate;
+import com.entopix.maui.util.Counter;
+import com.entopix.maui.util.DataLoader;
+import com.entopix.maui.util.Topic;
+import com.entopix.maui.vocab.Vocabulary;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import weka.core.SerializedObject;
+
+/**
+ * Checks that the candidates and topics of a text are the same however
+ * they are collected.
+ *
+ * @author zelandiya
+ *
+ */
+public class CandidateCollectionTest {
+
+	private static final String DATA = "src/test/resources/data/";
+	private static final String VOCABULARY = DATA + "vocabularies/agrovoc_sample.rdf";
+
+	private static Vocabulary vocabulary;
+	private static MauiFilter freeIndexingModel;
+
+	@BeforeClass
+	public static void setUp() throws Exception {
+		vocabulary = new Vocabulary();
+		vocabulary.initializeVocabulary(VOCABULARY, "skos");
+
+		MauiModelBuilder modelBuilder = new MauiModelBuilder();
+		modelBuilder.minNumOccur = 2;
+		freeIndexingModel = modelBuilder.buildModel(
+				DataLoader.loadTestDocuments(DATA + "automatic_tagging/train"));
+	}
+
+	private static MauiFilter termAssignmentModel() {
+		MauiFilter model = DataLoader.loadModel(DATA + "models/test");
+		model.setVocabularyName(VOCABULARY);
+		model.setVocabulary(vocabulary);
+		return model;
+	}
+
+	/**
+	 * Returns a copy of the free indexing model, which can be changed
+	 * without changing the one that was built.
+	 */
+	private static MauiFilter freeIndexingModel() throws Exception {
+		return (MauiFilter) new SerializedObject(freeIndexingModel).getObject();
+	}
+
+	private static List<String> texts(String directory) throws Exception {
+		List<String> texts = new ArrayList<String>();
+		StringBuilder all = new StringBuilder();
+		for (File file : new File(directory).listFiles()) {
+			if (file.getName().endsWith(".txt")) {
+				String text = FileUtils.readFileToString(file);
+				texts.add(text);
+				all.append(text).append('\n');
+			}
+		}
+		texts.add(all.toString());
+		texts.add("Word. Other/ thing, a.b c's. x- y. ; ok");
+		texts.add("");
+		return texts;
+	}
+
+	/**
+	 * Returns a description of each candidate, sorted by candidate name.
+	 */
+	private static List<String> describe(HashMap<String, Candidate> candidates) {
+		List<String> descriptions = new ArrayList<String>();
+		for (Map.Entry<String, Candidate> entry : candidates.entrySet()) {
+			Candidate candidate = entry.getValue();
+			StringBuilder description = new StringBuilder();
+			description.append(entry.getKey()).append('|').append(candidate.getTitle())
+					.append('|').append(candidate.getFrequency())
+					.append('|').append(candidate.getTermFrequency())
+					.append('|').append(candidate.getFirstOccurrence())
+					.append('|').append(candidate.getLastOccurrence())
+					.append('|').append(candidate.getBestFullForm()).append('|');
+			List<String> fullForms = new ArrayList<String>();
+			for (Map.Entry<String, Counter> fullForm : candidate.getFullForms().entrySet()) {
+				fullForms.add(fullForm.getKey() + "=" + fullForm.getValue().value());
+			}
+			Collections.sort(fullForms);
+			description.append(fullForms);
+			descriptions.add(description.toString());
+		}
+		Collections.sort(descriptions);
+		return descriptions;
+	}
+
+	private static List<String> describe(List<Topic> topics) {
+		List<String> descriptions = new ArrayList<String>();
+		for (Topic topic : topics) {
+			descriptions.add(topic.getTitle() + "|" + topic.getId() + "|"
+					+ topic.getProbability() + "|" + topic.getFeatures());
+		}
+		return descriptions;
+	}
+
+	/**
+	 * Compares the candidates and topics of the texts with those of the
+	 * same texts read from a reader.
+	 */
+	private static void assertSameFromReader(MauiFilter model, List<String> texts) throws Exception {
+		assertFalse(model.getCandidates(texts.get(0)).isEmpty());
+		for (String text : texts) {
+			assertEquals(describe(model.getCandidates(text)),
+					describe(model.getCandidates(new StringReader(text))));
+			assertEquals(describe(model.extractTopics(text, 1000)),
+					describe(model.extractTopics(new StringReader(text), 1000)));
+		}
+	}
+
+	/**
+	 * Compares the candidates and topics of the given models with those of
+	 * the sequential model, on all texts.
+	 */
+	private static void assertSameAsSequential(MauiFilter sequential, List<String> texts,
+			MauiFilter... models) throws Exception {
+		assertFalse(sequential.getCandidates(texts.get(0)).isEmpty());
+		for (String text : texts) {
+			List<String> expectedCandidates = describe(sequential.getCandidates(text));
+			List<String> expectedTopics = describe(sequential.extractTopics(text, 1000));
+			for (MauiFilter model : models) {
+				assertEquals(expectedCandidates, describe(model.getCandidates(text)));
+				assertEquals(expectedTopics, describe(model.extractTopics(text, 1000)));
+			}
+		}
+	}
+
+	/**
+	 * Returns models that split texts into parts of the given lengths.
+	 */
+	private static MauiFilter[] segmentingModels(boolean termAssignment, int... lengths)
+			throws Exception {
+		MauiFilter[] models = new MauiFilter[lengths.length];
+		for (int i = 0; i < lengths.length; i++) {
+			models[i] = termAssignment ? termAssignmentModel() : freeIndexingModel();
+			models[i].setCandidateSegmentLength(lengths[i]);
+			models[i].prepareForConcurrentExtraction();
+		}
+		return models;
+	}
+
+	/**
+	 * A text of mostly distinct words, which is generated as it is read.
+	 * The heap in use is measured when the first and the last checkpoint
+	 * are reached.
+	 */
+	private static class DistinctWords extends Reader {
+
+		private final int numWords;
+		private final int firstCheckpoint;
+		private final StringBuilder pending = new StringBuilder();
+		private int pendingStart = 0;
+		private int word = 0;
+		long usedAtFirstCheckpoint = -1;
+		long usedAtLastCheckpoint = -1;
+
+		DistinctWords(int numWords, int firstCheckpoint) {
+			this.numWords = numWords;
+			this.firstCheckpoint = firstCheckpoint;
+		}
+
+		private static long usedMemory() {
+			Runtime runtime = Runtime.getRuntime();
+			System.gc();
+			return runtime.totalMemory() - runtime.freeMemory();
+		}
+
+		@Override
+		public int read(char[] buffer, int offset, int length) {
+			if (pendingStart == pending.length()) {
+				if (word == numWords) {
+					usedAtLastCheckpoint = usedMemory();
+					return -1;
+				}
+				if (word == firstCheckpoint) {
+					usedAtFirstCheckpoint = usedMemory();
+				}
+				pending.setLength(0);
+				pendingStart = 0;
+				for (int i = 0; i < 1000 && word < numWords; i++, word++) {
+					pending.append(i % 10 == 0 ? "Africa and soil. " : "w" + Integer.toString(word, 36) + " ");
+				}
+			}
+			int n = Math.min(length, pending.length() - pendingStart);
+			pending.getChars(pendingStart, pendingStart + n, buffer, offset);
+			pendingStart += n;
+			return n;
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+
+	@Test
+	public void testReaderTermAssignment() throws Exception {
+		assertSameFromReader(termAssignmentModel(), texts(DATA + "term_assignment/test"));
+	}
+
+	@Test
+	public void testReaderFreeIndexing() throws Exception {
+		assertSameFromReader(freeIndexingModel(), texts(DATA + "automatic_tagging/test"));
+	}
+
+	@Test
+	public void testSegmentsTermAssignment() throws Exception {
+		assertSameAsSequential(termAssignmentModel(), texts(DATA + "term_assignment/test"),
+				segmentingModels(true, 3, 20, 500));
+	}
+
+	@Test
+	public void testSegmentsFreeIndexing() throws Exception {
+		assertSameAsSequential(freeIndexingModel(), texts(DATA + "automatic_tagging/test"),
+				segmentingModels(false, 3, 20, 500));
+	}
+
+	@Test
+	public void testBoundedTableTermAssignment() throws Exception {
+		MauiFilter bounded = termAssignmentModel();
+		bounded.setMaxCandidates(1000000);
+		assertSameAsSequential(termAssignmentModel(), texts(DATA + "term_assignment/test"), bounded);
+	}
+
+	@Test
+	public void testBoundedTableFreeIndexing() throws Exception {
+		MauiFilter bounded = freeIndexingModel();
+		bounded.setMaxCandidates(1000000);
+		assertSameAsSequential(freeIndexingModel(), texts(DATA + "automatic_tagging/test"), bounded);
+	}
+
+	@Test
+	public void testBoundedTableMemory() throws Exception {
+		MauiFilter model = termAssignmentModel();
+		model.setMaxCandidates(100);
+		model.getCandidates("Africa and soil.");
+
+		// 700000 distinct words would take well over 32 MB if they were kept
+		DistinctWords text = new DistinctWords(800000, 100000);
+		HashMap<String, Candidate> candidates = model.getCandidates(text);
+		assertFalse(candidates.isEmpty());
+		assertTrue(candidates.size() <= 100);
+		long growth = text.usedAtLastCheckpoint - text.usedAtFirstCheckpoint;
+		assertTrue("The heap grew by " + growth + " bytes", growth < 32 << 20);
+	}
+}
@@ -0,0 +1,178 @@
+package com.entopix.maui.filters;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import com.entopix.maui.main.MauiModelBuilder;
+import com.entopix.maui.util.DataLoader;
+import com.entopix.maui.util.MauiDocument;
+import com.entopix.maui.util.Topic;
+import com.entopix.maui.vocab.Vocabulary;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+import weka.classifiers.Classifier;
+import weka.core.Instance;
+import weka.core.Instances;
+
+/**
+ * Checks that the compiled classifier gives the same class probabilities
+ * as the Weka classifier it was compiled from.
+ *
+ * @author zelandiya
+ *
+ */
+public class CompiledClassifierTest {
+
+	private static final String DATA = "src/test/resources/data/";
+
+	/**
+	 * Returns the value of a private field of the model, as the model
+	 * does not give out its classifier.
+	 */
+	private static Object getField(MauiFilter model, String name) throws Exception {
+		Field field = MauiFilter.class.getDeclaredField(name);
+		field.setAccessible(true);
+		return field.get(model);
+	}
+
+	/**
+	 * Returns the feature values of the topics extracted from the given
+	 * documents, one row per topic, with a missing class value.
+	 */
+	private static List<double[]> featureRows(MauiFilter model, Instances header, String directory)
+			throws Exception {
+		List<double[]> rows = new ArrayList<double[]>();
+		for (File file : new File(directory).listFiles()) {
+			if (!file.getName().endsWith(".txt")) {
+				continue;
+			}
+			for (Topic topic : model.extractTopics(FileUtils.readFileToString(file), 1000)) {
+				Map<String, Double> features = topic.getFeatures();
+				double[] row = new double[header.numAttributes()];
+				for (int i = 0; i < row.length; i++) {
+					row[i] = i == header.classIndex() ? Double.NaN
+							: features.get(header.attribute(i).name());
+				}
+				rows.add(row);
+			}
+		}
+		return rows;
+	}
+
+	/**
+	 * Adds copies of the rows with some values changed, so that the rows
+	 * also reach the branches that the extracted topics do not.
+	 */
+	private static void addPerturbedRows(List<double[]> rows, int classIndex, Random random) {
+		int numRows = rows.size();
+		for (int i = 0; i < numRows; i++) {
+			double[] row = rows.get(i).clone();
+			for (int j = 0; j < row.length; j++) {
+				if (j != classIndex && random.nextInt(3) == 0) {
+					row[j] = random.nextInt(4) == 0 ? 0 : row[j] * (0.5 + random.nextDouble())
+							+ random.nextGaussian() * 0.1;
+				}
+			}
+			rows.add(row);
+		}
+	}
+
+	private static void assertSameDistributions(MauiFilter model, List<double[]> rows) throws Exception {
+		Classifier classifier = (Classifier) getField(model, "classifier");
+		Instances header = (Instances) getField(model, "classifierData");
+		CompiledClassifier compiled = CompiledClassifier.compile(classifier, header);
+		assertNotNull(compiled);
+		assertEquals(header.numClasses(), compiled.numClasses());
+
+		int numClasses = compiled.numClasses();
+		FeatureMatrix matrix = new FeatureMatrix();
+		matrix.reset(rows.size(), header.numAttributes());
+		for (int row = 0; row < rows.size(); row++) {
+			matrix.setRow(row, rows.get(row));
+		}
+		double[] distributions = new double[rows.size() * numClasses];
+		compiled.distributionsForMatrix(matrix, distributions);
+
+		int numMissing = 0;
+		for (int row = 0; row < rows.size(); row++) {
+			double[] values = rows.get(row);
+			double[] distribution = compiled.distributionForInstance(values);
+			if (distribution == null) {
+				// Weka splits instances with missing values between the
+				// branches, which the compiled classifier leaves to it
+				numMissing++;
+				assertTrue(Double.isNaN(distributions[row * numClasses]));
+				continue;
+			}
+			Instance instance = new Instance(1, values.clone());
+			instance.setDataset(header);
+			double[] expected = classifier.distributionForInstance(instance);
+			assertArrayEquals("row " + row, expected, distribution, 0);
+			for (int j = 0; j < numClasses; j++) {
+				assertEquals("row " + row, expected[j], distributions[row * numClasses + j], 0);
+			}
+		}
+		assertTrue(numMissing < rows.size());
+	}
+
+	private static void addRowsWithMissingValues(List<double[]> rows, int classIndex, Random random) {
+		int numRows = rows.size();
+		for (int i = 0; i < numRows; i += 7) {
+			double[] row = rows.get(i).clone();
+			int j = random.nextInt(row.length);
+			if (j != classIndex) {
+				row[j] = Double.NaN;
+				rows.add(row);
+			}
+		}
+	}
+
+	@Test
+	public void testTermAssignmentModel() throws Exception {
+		Vocabulary vocabulary = new Vocabulary();
+		vocabulary.initializeVocabulary(DATA + "vocabularies/agrovoc_sample.rdf", "skos");
+		MauiFilter model = DataLoader.loadModel(DATA + "models/test");
+		model.setVocabularyName(DATA + "vocabularies/agrovoc_sample.rdf");
+		model.setVocabulary(vocabulary);
+
+		Instances header = (Instances) getField(model, "classifierData");
+		List<double[]> rows = featureRows(model, header, DATA + "term_assignment/test");
+		assertFalse(rows.isEmpty());
+		Random random = new Random(1);
+		int classIndex = header.classIndex();
+		addPerturbedRows(rows, classIndex, random);
+		addRowsWithMissingValues(rows, classIndex, random);
+		assertSameDistributions(model, rows);
+	}
+
+	@Test
+	public void testAutomaticTaggingModel() throws Exception {
+		MauiModelBuilder modelBuilder = new MauiModelBuilder();
+		modelBuilder.minNumOccur = 2;
+		List<MauiDocument> trainingDocs = DataLoader.loadTestDocuments(DATA + "automatic_tagging/train");
+		MauiFilter model = modelBuilder.buildModel(trainingDocs);
+		assertNull(model.getVocabulary());
+
+		Instances header = (Instances) getField(model, "classifierData");
+		List<double[]> rows = featureRows(model, header, DATA + "automatic_tagging/test");
+		assertFalse(rows.isEmpty());
+		Random random = new Random(2);
+		int classIndex = header.classIndex();
+		addPerturbedRows(rows, classIndex, random);
+		addRowsWithMissingValues(rows, classIndex, random);
+		assertSameDistributions(model, rows);
+	}
+}
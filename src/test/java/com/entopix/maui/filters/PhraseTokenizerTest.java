@@ -0,0 +1,242 @@
+package com.entopix.maui.filters;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.StringTokenizer;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+/**
+ * Checks that PhraseTokenizer finds the same phrases and words as the
+ * MauiPhraseFilter and NumbersFilter that MauiFilter used to apply.
+ *
+ * @author zelandiya
+ *
+ */
+public class PhraseTokenizerTest {
+
+	private static final String[] DIRECTORIES = {
+		"src/test/resources/data/term_assignment/test",
+		"src/test/resources/data/term_assignment/test_fr",
+		"src/test/resources/data/automatic_tagging/test" };
+
+	private static final String ALPHABET = "abcXYZ\u00e9\u00df\u0416\u4e2d0129.@_&/'-,;:()\" \n\n\t\r";
+
+	/**
+	 * MauiPhraseFilter.tokenize() as it was, which separated phrases by
+	 * '\n' and words by ' '.
+	 */
+	private static String tokenize(String text, boolean disallowInternalPeriods) {
+		StringBuffer result = new StringBuffer();
+		int j = 0;
+		boolean phraseStart = true;
+		boolean seenNewLine = false;
+		boolean haveSeenHyphen = false;
+		boolean haveSeenSlash = false;
+		while (j < text.length()) {
+			boolean isWord = false;
+			boolean potNumber = false;
+			int startj = j;
+			while (j < text.length()) {
+				char ch = text.charAt(j);
+				if (Character.isLetterOrDigit(ch)) {
+					potNumber = true;
+					if (Character.isLetter(ch)) {
+						isWord = true;
+					}
+					j++;
+				} else if ((!disallowInternalPeriods && (ch == '.'))
+						|| (ch == '@') || (ch == '_') || (ch == '&')
+						|| (ch == '/') || (ch == '\'')) {
+					if ((j > 0) && (j + 1 < text.length())
+							&& Character.isLetterOrDigit(text.charAt(j - 1))
+							&& Character.isLetterOrDigit(text.charAt(j + 1))) {
+						j++;
+					} else {
+						break;
+					}
+				} else {
+					break;
+				}
+			}
+			if (isWord == true) {
+				if (!phraseStart) {
+					if (haveSeenHyphen) {
+						result.append(' ');
+					} else if (haveSeenSlash) {
+						result.append('/');
+					} else {
+						result.append(' ');
+					}
+				}
+				result.append(text.substring(startj, j));
+				if (j == text.length()) {
+					break;
+				}
+				phraseStart = false;
+				seenNewLine = false;
+				haveSeenHyphen = false;
+				haveSeenSlash = false;
+				if (Character.isWhitespace(text.charAt(j))) {
+					if (text.charAt(j) == '\n') {
+						seenNewLine = true;
+					}
+				} else if (text.charAt(j) == '-') {
+					haveSeenHyphen = true;
+				} else if (text.charAt(j) == '/') {
+					haveSeenSlash = true;
+				} else {
+					phraseStart = true;
+					result.append('\n');
+				}
+				j++;
+			} else if (j == text.length()) {
+				break;
+			} else if (text.charAt(j) == '\n') {
+				if (seenNewLine) {
+					if (phraseStart == false) {
+						result.append('\n');
+						phraseStart = true;
+					}
+				} else if (potNumber) {
+					if (phraseStart == false) {
+						phraseStart = true;
+						result.append('\n');
+					}
+				}
+				seenNewLine = true;
+				j++;
+			} else if (Character.isWhitespace(text.charAt(j))) {
+				if (potNumber) {
+					if (phraseStart == false) {
+						phraseStart = true;
+						result.append('\n');
+					}
+				}
+				j++;
+			} else {
+				if (phraseStart == false) {
+					result.append('\n');
+					phraseStart = true;
+				}
+				j++;
+			}
+		}
+		return result.toString();
+	}
+
+	/**
+	 * NumbersFilter.filterNumbers() as it was, which ended a phrase at
+	 * every token without a letter. It was applied in free indexing.
+	 */
+	private static String filterNumbers(String text) {
+		StringBuffer result = new StringBuffer();
+		StringTokenizer tok = new StringTokenizer(text, " \t\n", true);
+		while (tok.hasMoreTokens()) {
+			String token = tok.nextToken();
+			boolean isNumber = true;
+			for (int j = 0; j < token.length(); j++) {
+				if (Character.isLetter(token.charAt(j))) {
+					isNumber = false;
+					break;
+				}
+			}
+			if (!isNumber || token.equals(" ") || token.equals("\t") || token.equals("\n")) {
+				result.append(token);
+			} else {
+				result.append(" \n ");
+			}
+		}
+		return result.toString();
+	}
+
+	/**
+	 * Splits the filtered text into phrases and words, as getCandidates()
+	 * used to.
+	 */
+	private static List<List<String>> split(String filtered) {
+		List<List<String>> phrases = new ArrayList<List<String>>();
+		StringTokenizer tok = new StringTokenizer(filtered, "\n");
+		while (tok.hasMoreTokens()) {
+			List<String> phrase = new ArrayList<String>();
+			StringTokenizer wordTok = new StringTokenizer(tok.nextToken(), " ");
+			while (wordTok.hasMoreTokens()) {
+				phrase.add(wordTok.nextToken());
+			}
+			if (!phrase.isEmpty()) {
+				phrases.add(phrase);
+			}
+		}
+		return phrases;
+	}
+
+	private static List<List<String>> tokenizeWithPhraseTokenizer(CharSequence text,
+			boolean disallowInternalPeriods) {
+		List<List<String>> phrases = new ArrayList<List<String>>();
+		PhraseTokenizer tokenizer = new PhraseTokenizer(text, disallowInternalPeriods);
+		while (tokenizer.next()) {
+			if (tokenizer.startsPhrase() || phrases.isEmpty()) {
+				phrases.add(new ArrayList<String>());
+			}
+			String word = tokenizer.getWord();
+			assertEquals(word, tokenizer.getText().subSequence(tokenizer.getStart(),
+					tokenizer.getEnd()).toString());
+			phrases.get(phrases.size() - 1).add(word);
+		}
+		return phrases;
+	}
+
+	private static void assertSamePhrases(String text) {
+		for (boolean disallowInternalPeriods : new boolean[] { false, true }) {
+			String tokenized = tokenize(text, disallowInternalPeriods);
+			List<List<String>> phrases = tokenizeWithPhraseTokenizer(text, disallowInternalPeriods);
+			assertEquals(text, split(tokenized), phrases);
+			if (!disallowInternalPeriods) {
+				assertEquals(text, split(filterNumbers(tokenized)), phrases);
+			}
+		}
+	}
+
+	@Test
+	public void testDocuments() throws Exception {
+		int numDocuments = 0;
+		for (String directory : DIRECTORIES) {
+			for (File file : new File(directory).listFiles()) {
+				if (file.getName().endsWith(".txt")) {
+					assertSamePhrases(FileUtils.readFileToString(file, "UTF-8"));
+					numDocuments++;
+				}
+			}
+		}
+		assertFalse(numDocuments == 0);
+	}
+
+	@Test
+	public void testRandomTexts() {
+		Random random = new Random(7);
+		for (int i = 0; i < 20000; i++) {
+			StringBuilder text = new StringBuilder();
+			int length = random.nextInt(i < 10000 ? 10 : 200);
+			for (int j = 0; j < length; j++) {
+				text.append(ALPHABET.charAt(random.nextInt(ALPHABET.length())));
+			}
+			assertSamePhrases(text.toString());
+		}
+	}
+
+	@Test
+	public void testEdgeCases() {
+		String[] texts = { "", "a", "1", "a/", "/a", "a/ b", "a/\nb", "a- b", "a -b",
+			"a.b c's. x- y. ; ok", "Word. Other/ thing, a.b", "3 apples\n\npears",
+			"a\nb\n\nc", "a 1b c", "a1 b", "'a' b'", "a'b c.d. e@f_g&h" };
+		for (String text : texts) {
+			assertSamePhrases(text);
+		}
+	}
+}
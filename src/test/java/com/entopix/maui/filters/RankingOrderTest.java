@@ -0,0 +1,178 @@
+package com.entopix.maui.filters;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import com.entopix.maui.main.MauiModelBuilder;
+import com.entopix.maui.util.Candidate;
+import com.entopix.maui.util.DataLoader;
+import com.entopix.maui.util.Topic;
+import com.entopix.maui.vocab.Vocabulary;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+import weka.core.Utils;
+
+/**
+ * Checks that extractTopics() ranks the topics in the order given by the
+ * three stable sorts MauiFilter used to make over the candidates: by
+ * TFxIDF, then by IDF (descending), then by probability (descending).
+ *
+ * @author zelandiya
+ *
+ */
+public class RankingOrderTest {
+
+	private static final String DATA = "src/test/resources/data/";
+
+	/** Number of values that are equal to another within Utils.SMALL, but not the same */
+	private int numCloseValues;
+
+	/**
+	 * Ranks the candidates as MauiFilter used to, with Utils.stableSort.
+	 */
+	private static int[] rankWithStableSorts(double[] probabilities, double[] idf, double[] tfidf) {
+		int n = probabilities.length;
+		int[] order = new int[n];
+		for (int i = 0; i < n; i++) {
+			order[i] = i;
+		}
+		double[] vals = new double[n];
+		for (int i = 0; i < n; i++) {
+			vals[i] = tfidf[order[i]];
+		}
+		order = reorder(order, Utils.stableSort(vals));
+		for (int i = 0; i < n; i++) {
+			vals[i] = -idf[order[i]];
+		}
+		order = reorder(order, Utils.stableSort(vals));
+		for (int i = 0; i < n; i++) {
+			vals[i] = 1 - probabilities[order[i]];
+		}
+		return reorder(order, Utils.stableSort(vals));
+	}
+
+	private static int[] reorder(int[] order, int[] sortedIndices) {
+		int[] result = new int[order.length];
+		for (int i = 0; i < order.length; i++) {
+			result[i] = order[sortedIndices[i]];
+		}
+		return result;
+	}
+
+	private int countCloseValues(double[] values) {
+		int count = 0;
+		for (int i = 0; i < values.length; i++) {
+			for (int j = 0; j < values.length; j++) {
+				if (values[i] != values[j] && Utils.eq(values[i], values[j])) {
+					count++;
+					break;
+				}
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Scores the candidates of the text in the order of the candidate
+	 * table, ranks them with the stable sorts, and compares the result with
+	 * the topics returned by extractTopics().
+	 */
+	private void assertRanking(MauiFilter model, String text) throws Exception {
+		List<Topic> topics = model.extractTopics(text, Integer.MAX_VALUE);
+		if (topics.isEmpty()) {
+			return;
+		}
+		List<String> featureNames = new ArrayList<String>(topics.get(0).getFeatures().keySet());
+		int tfidfIndex = featureNames.indexOf("TFxIDF");
+		int idfIndex = featureNames.indexOf("IDF");
+
+		HashMap<String, Candidate> candidateList = model.getCandidates(text);
+		List<Candidate> candidates = new ArrayList<Candidate>(candidateList.values());
+		FeatureMatrix matrix = new FeatureMatrix();
+		model.computeFeatures(candidates, candidateList, matrix);
+		double[] scores = model.scoreFeatures(matrix);
+
+		// the rows that could not be scored are left out, as in MauiFilter
+		List<Integer> rows = new ArrayList<Integer>();
+		for (int row = 0; row < scores.length; row++) {
+			if (!Double.isNaN(scores[row])) {
+				rows.add(row);
+			}
+		}
+		double[] probabilities = new double[rows.size()];
+		double[] idf = new double[rows.size()];
+		double[] tfidf = new double[rows.size()];
+		for (int i = 0; i < rows.size(); i++) {
+			probabilities[i] = scores[rows.get(i)];
+			idf[i] = matrix.get(rows.get(i), idfIndex);
+			tfidf[i] = matrix.get(rows.get(i), tfidfIndex);
+		}
+		numCloseValues += countCloseValues(probabilities) + countCloseValues(idf)
+				+ countCloseValues(tfidf);
+
+		int position = 0;
+		for (int i : rankWithStableSorts(probabilities, idf, tfidf)) {
+			if (probabilities[i] <= 0) {
+				continue;
+			}
+			Topic topic = topics.get(position++);
+			assertEquals(probabilities[i], topic.getProbability(), 0);
+			double[] row = matrix.getRow(rows.get(i));
+			for (int j = 0; j < featureNames.size(); j++) {
+				assertEquals(topic.getTitle() + " " + featureNames.get(j), row[j],
+						topic.getFeatures().get(featureNames.get(j)), 0);
+			}
+		}
+		assertEquals(topics.size(), position);
+	}
+
+	private void assertRankingOfDocuments(MauiFilter model, String directory) throws Exception {
+		StringBuilder all = new StringBuilder();
+		for (File file : new File(directory).listFiles()) {
+			if (file.getName().endsWith(".txt")) {
+				String text = FileUtils.readFileToString(file);
+				assertRanking(model, text);
+				all.append(text).append('\n');
+			}
+		}
+		assertRanking(model, all.toString());
+
+		// a text in which one candidate occurs very often has so small term
+		// frequencies, and with them TFxIDF values, that many of them are
+		// equal within Utils.SMALL
+		for (int i = 0; i < 500000; i++) {
+			all.append("Africa. ");
+		}
+		assertRanking(model, all.toString());
+	}
+
+	@Test
+	public void testTermAssignment() throws Exception {
+		Vocabulary vocabulary = new Vocabulary();
+		vocabulary.initializeVocabulary(DATA + "vocabularies/agrovoc_sample.rdf", "skos");
+		MauiFilter model = DataLoader.loadModel(DATA + "models/test");
+		model.setVocabularyName(DATA + "vocabularies/agrovoc_sample.rdf");
+		model.setVocabulary(vocabulary);
+
+		assertRankingOfDocuments(model, DATA + "term_assignment/test");
+		assertTrue(numCloseValues > 0);
+	}
+
+	@Test
+	public void testAutomaticTagging() throws Exception {
+		MauiModelBuilder modelBuilder = new MauiModelBuilder();
+		modelBuilder.minNumOccur = 2;
+		MauiFilter model = modelBuilder.buildModel(
+				DataLoader.loadTestDocuments(DATA + "automatic_tagging/train"));
+
+		assertRankingOfDocuments(model, DATA + "automatic_tagging/test");
+		assertTrue(numCloseValues > 0);
+	}
+}
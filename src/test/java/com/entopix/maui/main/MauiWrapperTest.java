@@ -1,10 +1,19 @@
 package com.entopix.maui.main;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 
 import com.entopix.maui.filters.MauiFilter.MauiFilterException;
 import com.entopix.maui.util.Topic;
+import com.entopix.maui.util.TopicCache;
 
 import org.junit.Test;
 import org.slf4j.Logger;
@@ -61,4 +70,63 @@ public class MauiWrapperTest {
 		}
 	}
 
+	@Test
+	public void testMalformedInputInFile() throws Exception {
+        String vocabularyName = "src/test/resources/data/vocabularies/agrovoc_sample.rdf";
+        String modelName = "src/test/resources/data/models/test";
+        String filePath = "src/test/resources/data/term_assignment/test/w7540e.txt";
+
+        MauiWrapper mauiWrapper = new MauiWrapper(modelName, vocabularyName, "skos");
+        mauiWrapper.setModelParameters(vocabularyName, null, null, null);
+
+        // bytes that are not valid UTF-8, as found in OCR text
+        byte[] text = Files.readAllBytes(Paths.get(filePath));
+        File file = File.createTempFile("malformed", ".txt");
+        file.deleteOnExit();
+        OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(text, 0, text.length / 2);
+            out.write(new byte[] { (byte) 0xff, (byte) 0xfe, ' ' });
+            out.write(text, text.length / 2, text.length - text.length / 2);
+        } finally {
+            out.close();
+        }
+
+        // reading the file as a stream gives the same topics as loading it
+        ArrayList<Topic> expected = mauiWrapper.extractTopicsFromFile(file.getPath(), 20);
+        ArrayList<Topic> topics = mauiWrapper.extractTopicsFromFile(file.toPath(), 20);
+        assertFalse(expected.isEmpty());
+        assertEquals(expected.size(), topics.size());
+        for (int i = 0; i < topics.size(); i++) {
+            assertEquals(expected.get(i).getTitle(), topics.get(i).getTitle());
+            assertEquals(expected.get(i).getProbability(), topics.get(i).getProbability(), 0);
+        }
+	}
+
+	@Test
+	public void testSharedCache() throws Exception {
+        String vocabularyName = "src/test/resources/data/vocabularies/agrovoc_sample.rdf";
+        String modelName = "src/test/resources/data/models/test";
+        String text = new String(Files.readAllBytes(
+                Paths.get("src/test/resources/data/term_assignment/test/w7540e.txt")));
+
+        MauiWrapper first = new MauiWrapper(modelName, vocabularyName, "skos");
+        MauiWrapper second = new MauiWrapper(modelName, vocabularyName, "skos");
+        first.setModelParameters(vocabularyName, null, null, null);
+        second.setModelParameters(vocabularyName, null, null, null);
+        TopicCache cache = new TopicCache(10, 1000, 0);
+        first.setCache(cache);
+        second.setCache(cache);
+
+        // each wrapper extracts the topics with its own model
+        first.extractTopicsFromText(text, 10);
+        second.extractTopicsFromText(text, 10);
+        assertEquals(0, cache.getHits());
+        assertEquals(2, cache.size());
+
+        first.extractTopicsFromText(text, 10);
+        second.extractTopicsFromText(text, 10);
+        assertEquals(2, cache.getHits());
+	}
+
 }
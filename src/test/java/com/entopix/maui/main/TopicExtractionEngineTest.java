@@ -0,0 +1,73 @@
+package com.entopix.maui.main;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.util.List;
+
+import com.entopix.maui.filters.MauiFilter;
+import com.entopix.maui.stemmers.PorterStemmer;
+import com.entopix.maui.util.DataLoader;
+import com.entopix.maui.util.Topic;
+import com.entopix.maui.vocab.Vocabulary;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+/**
+ * Checks that TopicExtractionEngine extracts the same topics as the model
+ * it is created with, and that the model can no longer be changed.
+ *
+ * @author zelandiya
+ *
+ */
+public class TopicExtractionEngineTest {
+
+	private static final String VOCABULARY = "src/test/resources/data/vocabularies/agrovoc_sample.rdf";
+	private static final String MODEL = "src/test/resources/data/models/test";
+	private static final String TEXT = "src/test/resources/data/term_assignment/test/w7540e.txt";
+
+	private static MauiFilter loadModel(Vocabulary vocabulary) {
+		MauiFilter model = DataLoader.loadModel(MODEL);
+		model.setVocabularyName(VOCABULARY);
+		model.setVocabulary(vocabulary);
+		return model;
+	}
+
+	@Test
+	public void testModelIsFrozen() throws Exception {
+		Vocabulary vocabulary = new Vocabulary();
+		vocabulary.initializeVocabulary(VOCABULARY, "skos");
+		String text = FileUtils.readFileToString(new File(TEXT));
+
+		List<Topic> expected = loadModel(vocabulary).extractTopics(text, 20);
+		assertFalse(expected.isEmpty());
+
+		MauiFilter model = loadModel(vocabulary);
+		TopicExtractionEngine engine = new TopicExtractionEngine(model, vocabulary);
+		List<Topic> topics = engine.extract(text, 20);
+		assertEquals(expected.size(), topics.size());
+		for (int i = 0; i < topics.size(); i++) {
+			assertEquals(expected.get(i).getId(), topics.get(i).getId());
+			assertEquals(expected.get(i).getProbability(), topics.get(i).getProbability(), 0);
+		}
+
+		try {
+			model.setStemmer(new PorterStemmer());
+			fail("The stemmer of a model used by an engine was changed");
+		} catch (IllegalStateException e) {
+			// expected
+		}
+		try {
+			model.setMaxCandidates(10);
+			fail("The candidates of a model used by an engine were limited");
+		} catch (IllegalStateException e) {
+			// expected
+		}
+
+		// a second engine can share the model and its vocabulary
+		assertEquals(topics.size(), new TopicExtractionEngine(model, vocabulary).extract(text, 20).size());
+	}
+}
@@ -0,0 +1,112 @@
+package com.entopix.maui.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+/**
+ * Checks that CountTable counts like a HashMap and survives serialization.
+ *
+ * @author zelandiya
+ *
+ */
+public class CountTableTest {
+
+	private static CountTable roundTrip(CountTable table) throws Exception {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ObjectOutputStream out = new ObjectOutputStream(bytes);
+		out.writeObject(table);
+		out.close();
+		ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+		return (CountTable) in.readObject();
+	}
+
+	@Test
+	public void testCounts() {
+		CountTable table = new CountTable();
+		for (int i = 0; i < 1000; i++) {
+			table.increment("key" + (i % 100));
+		}
+		table.increment(null, 5);
+		assertEquals(101, table.size());
+		assertEquals(10, table.get("key7"));
+		assertEquals(5, table.get(null));
+		assertEquals(0, table.get("missing"));
+		assertTrue(table.containsKey(null));
+		assertFalse(table.containsKey("missing"));
+	}
+
+	@Test
+	public void testSerialization() throws Exception {
+		CountTable table = new CountTable();
+		for (int i = 0; i < 1000; i++) {
+			table.increment("key" + i, i + 1);
+		}
+		table.increment("", 3);
+		table.increment("\u00e9t\u00e9 \u0000 \ud83d\ude00", 2);
+		table.increment(null, 7);
+
+		CountTable copy = roundTrip(table);
+		assertEquals(table.size(), copy.size());
+		for (int i = 0; i < 1000; i++) {
+			assertEquals(i + 1, copy.get("key" + i));
+		}
+		assertEquals(3, copy.get(""));
+		assertEquals(2, copy.get("\u00e9t\u00e9 \u0000 \ud83d\ude00"));
+		assertEquals(7, copy.get(null));
+
+		// the copy can still be changed
+		assertEquals(2, copy.increment("key0"));
+		assertEquals(1, copy.increment("new"));
+	}
+
+	@Test
+	public void testSerializationOfLongKeys() throws Exception {
+		// longer than the 64 KB that writeUTF() can write
+		char[] chars = new char[70000];
+		Arrays.fill(chars, '\u00e9');
+		String longKey = new String(chars);
+
+		CountTable table = new CountTable();
+		table.increment(longKey, 4);
+		table.increment("short");
+
+		CountTable copy = roundTrip(table);
+		assertEquals(2, copy.size());
+		assertEquals(4, copy.get(longKey));
+		assertEquals(1, copy.get("short"));
+	}
+
+	@Test
+	public void testSerializedSize() throws Exception {
+		// ASCII keys take one byte per char, and each entry needs two ints,
+		// plus the headers of the stream's data blocks
+		CountTable table = new CountTable();
+		int numChars = 0;
+		for (int i = 0; i < 10000; i++) {
+			String key = "candidate phrase " + i;
+			table.increment(key);
+			numChars += key.length();
+		}
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ObjectOutputStream out = new ObjectOutputStream(bytes);
+		out.writeObject(table);
+		out.close();
+		assertTrue(bytes.size() < 1.1 * (numChars + 8 * table.size()));
+	}
+
+	@Test
+	public void testSerializationOfEmptyTable() throws Exception {
+		CountTable copy = roundTrip(new CountTable());
+		assertEquals(0, copy.size());
+		assertFalse(copy.containsKey(null));
+	}
+}
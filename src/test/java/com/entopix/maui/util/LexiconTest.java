@@ -0,0 +1,174 @@
+package com.entopix.maui.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.entopix.maui.stemmers.PorterStemmer;
+import com.entopix.maui.stemmers.Stemmer;
+
+import org.junit.Test;
+
+/**
+ * Checks that Lexicon gives each word one id, stems words like
+ * MauiFilter.pseudoPhrase, and survives serialization.
+ *
+ * @author zelandiya
+ *
+ */
+public class LexiconTest {
+
+	private static final String TEXT = "The Soils of the soil's surface and SOIL water "
+			+ "drain into rivers; river water, rivers' banks and soils \u00e9t\u00e9 d'eau";
+
+	private static Lexicon roundTrip(Lexicon lexicon) throws Exception {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ObjectOutputStream out = new ObjectOutputStream(bytes);
+		out.writeObject(lexicon);
+		out.close();
+		ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+		return (Lexicon) in.readObject();
+	}
+
+	/**
+	 * Returns the start and end of each word in the text.
+	 */
+	private static List<int[]> words(String text) {
+		List<int[]> words = new ArrayList<int[]>();
+		int start = -1;
+		for (int i = 0; i <= text.length(); i++) {
+			boolean inWord = i < text.length() && (Character.isLetter(text.charAt(i))
+					|| text.charAt(i) == '\'');
+			if (inWord && start == -1) {
+				start = i;
+			} else if (!inWord && start != -1) {
+				words.add(new int[] { start, i });
+				start = -1;
+			}
+		}
+		return words;
+	}
+
+	private static String stem(Stemmer stemmer, String word) {
+		String lowerCase = word.toLowerCase();
+		int apostrophe = lowerCase.indexOf('\'');
+		if (apostrophe != -1) {
+			lowerCase = lowerCase.substring(0, apostrophe);
+		}
+		return stemmer.stem(lowerCase);
+	}
+
+	private static void assertWords(Lexicon lexicon, String text, Stemmer stemmer) {
+		for (int[] word : words(text)) {
+			String string = text.substring(word[0], word[1]);
+			int id = lexicon.getId(text, word[0], word[1]);
+			assertTrue(string, id >= 0);
+			assertEquals(string, lexicon.getWord(id));
+			assertEquals(string.toLowerCase(), lexicon.getLowerCaseWord(id));
+			assertEquals(stem(stemmer, string), lexicon.getStem(lexicon.getStemId(id)));
+		}
+	}
+
+	@Test
+	public void testIdsAndStems() {
+		Stemmer stemmer = new PorterStemmer();
+		Lexicon lexicon = new Lexicon(stemmer);
+		assertWords(lexicon, TEXT, stemmer);
+
+		int soils = lexicon.getId(TEXT, 4, 9);
+		assertEquals(soils, lexicon.getId("soils and Soils", 10, 15));
+		assertEquals(lexicon.getStemId(soils), lexicon.getStemId(lexicon.getId("soil", 0, 4)));
+		assertFalse(soils == lexicon.getId("soils", 0, 5));
+		assertEquals(lexicon.getStemId(soils), lexicon.getStemId(lexicon.getId("SOIL's", 0, 6)));
+	}
+
+	@Test
+	public void testFrozenLexicon() {
+		Stemmer stemmer = new PorterStemmer();
+		Lexicon lexicon = new Lexicon(stemmer);
+		assertWords(lexicon, TEXT, stemmer);
+		int size = lexicon.size();
+		lexicon.freeze();
+		assertTrue(lexicon.isFrozen());
+		assertEquals(-1, lexicon.getId("unseen", 0, 6));
+		assertEquals(size, lexicon.size());
+
+		Lexicon extension = lexicon.extend();
+		assertTrue(extension.isExtensionOf(lexicon));
+		int unseen = extension.getId("unseen", 0, 6);
+		assertEquals(size, unseen);
+		assertEquals(lexicon.getId(TEXT, 4, 9), extension.getId(TEXT, 4, 9));
+		assertWords(extension, "unseen rivers and Unseen words", stemmer);
+
+		extension.clear();
+		assertEquals(size, extension.size());
+		assertEquals("other", extension.getWord(extension.getId("other", 0, 5)));
+
+		try {
+			lexicon.clear();
+			fail("A lexicon that is not an extension was cleared");
+		} catch (IllegalStateException e) {
+			// expected
+		}
+	}
+
+	@Test(timeout = 20000)
+	public void testNumberedWords() {
+		// words that differ only in their last characters, as in logs, have
+		// close hashes, which must not fill long runs of slots
+		Stemmer stemmer = new PorterStemmer();
+		Lexicon lexicon = new Lexicon(stemmer);
+		int numWords = 300000;
+		for (int i = 0; i < numWords; i++) {
+			String word = "w" + Integer.toString(i, 36);
+			assertEquals(i, lexicon.getId(word, 0, word.length()));
+		}
+		lexicon.freeze();
+		Lexicon extension = lexicon.extend();
+		for (int i = 0; i < numWords; i++) {
+			String word = "v" + Integer.toString(i, 36);
+			assertEquals(numWords + i, extension.getId(word, 0, word.length()));
+			assertEquals(i, extension.getId("w" + Integer.toString(i, 36), 0, word.length()));
+		}
+	}
+
+	@Test
+	public void testSerialization() throws Exception {
+		Stemmer stemmer = new PorterStemmer();
+		Lexicon lexicon = new Lexicon(stemmer);
+		List<int[]> words = words(TEXT);
+		int[] ids = new int[words.size()];
+		for (int i = 0; i < ids.length; i++) {
+			ids[i] = lexicon.getId(TEXT, words.get(i)[0], words.get(i)[1]);
+		}
+		lexicon.freeze();
+
+		Lexicon copy = roundTrip(lexicon);
+		assertTrue(copy.isFrozen());
+		assertEquals(lexicon.size(), copy.size());
+		for (int i = 0; i < ids.length; i++) {
+			assertEquals(ids[i], copy.getId(TEXT, words.get(i)[0], words.get(i)[1]));
+			assertEquals(lexicon.getWord(ids[i]), copy.getWord(ids[i]));
+			assertEquals(lexicon.getLowerCaseWord(ids[i]), copy.getLowerCaseWord(ids[i]));
+			assertEquals(lexicon.getStemId(ids[i]), copy.getStemId(ids[i]));
+			assertEquals(lexicon.getStem(lexicon.getStemId(ids[i])), copy.getStem(copy.getStemId(ids[i])));
+		}
+		assertEquals(-1, copy.getId("unseen", 0, 6));
+
+		// the stems of the copy are shared with its extensions
+		Lexicon extension = copy.extend();
+		int soil = copy.getId(TEXT, 4, 9);
+		int capitalized = extension.getId("Soil", 0, 4);
+		assertEquals(copy.size(), capitalized);
+		assertEquals(copy.getStemId(soil), extension.getStemId(capitalized));
+		assertWords(extension, TEXT + " unseen Words", stemmer);
+	}
+}
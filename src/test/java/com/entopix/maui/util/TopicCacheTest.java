@@ -0,0 +1,82 @@
+package com.entopix.maui.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Checks that TopicCache does not share topics between callers.
+ *
+ * @author zelandiya
+ *
+ */
+public class TopicCacheTest {
+
+	private static List<Topic> topics() {
+		LinkedHashMap<String, Double> features = new LinkedHashMap<String, Double>();
+		features.put("TFxIDF", 0.5);
+		List<Topic> topics = new ArrayList<Topic>();
+		topics.add(new Topic("Soil", "1", 0.9, features));
+		topics.add(new Topic("Water", "2", 0.4));
+		return topics;
+	}
+
+	@Test
+	public void testTopicsAreCopied() {
+		TopicCache cache = new TopicCache(10, 100, 0);
+		TopicCache.Key key = TopicCache.key("some text", 10);
+		List<Topic> extracted = topics();
+		cache.put(key, cache.getGeneration(), extracted);
+
+		// changes by the caller that extracted the topics
+		extracted.get(0).setCorrectness(true);
+		extracted.get(0).getFeatures().put("TFxIDF", 0.0);
+
+		List<Topic> first = cache.get(key);
+		assertEquals(2, first.size());
+		assertFalse(first.get(0).isCorrect());
+		assertEquals(0.5, first.get(0).getFeatures().get("TFxIDF"), 0);
+		assertNull(first.get(1).getFeatures());
+
+		// changes by a caller that got the topics from the cache
+		first.get(0).setCorrectness(true);
+		first.get(0).getFeatures().put("Length", 1.0);
+		first.clear();
+
+		List<Topic> second = cache.get(key);
+		assertEquals(2, second.size());
+		assertNotSame(first, second);
+		assertFalse(second.get(0).isCorrect());
+		assertEquals(1, second.get(0).getFeatures().size());
+		assertEquals("Soil", second.get(0).getTitle());
+		assertEquals("1", second.get(0).getId());
+		assertEquals(0.9, second.get(0).getProbability(), 0);
+	}
+
+	@Test
+	public void testOwnersAreKeptApart() {
+		TopicCache cache = new TopicCache(10, 100, 0);
+		cache.put(TopicCache.key(1, "some text", 10), cache.getGeneration(), topics());
+		assertNull(cache.get(TopicCache.key(2, "some text", 10)));
+		assertNull(cache.get(TopicCache.key("some text", 10)));
+		assertEquals(2, cache.get(TopicCache.key(1, "some text", 10)).size());
+	}
+
+	@Test
+	public void testInvalidatedGenerationIsIgnored() {
+		TopicCache cache = new TopicCache(10, 100, 0);
+		TopicCache.Key key = TopicCache.key("some text", 10);
+		int generation = cache.getGeneration();
+		cache.invalidateAll();
+		cache.put(key, generation, topics());
+		assertNull(cache.get(key));
+		assertEquals(0, cache.size());
+	}
+}